@@ -0,0 +1,80 @@
+package com.craftinginterpreters.lox;
+
+import com.craftinginterpreters.utils.Tuple;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.util.List;
+import java.util.Map;
+
+// Heap kept per AST node by a compiled script: the object AST with its
+// resolution table, against a FlatAst. Both are measured again after
+// the script has run, with the interpreter that ran it, since a FlatAst
+// only saves memory if running it doesn't leave the objects behind.
+// Run with a heap big enough for the object AST.
+// Usage: java -cp target/benchmarks.jar \
+//            com.craftinginterpreters.lox.AstBenchmark [megabytes]
+class AstBenchmark {
+    public static void main(String[] args) {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        String source = ScannerBenchmark.generate(megabytes * 1024 * 1024);
+        ErrorReporter reporter = new ErrorReporter(System.err);
+
+        long before = usedHeap();
+        LoxScript flat = FlatAst.compile(new Scanner(source, reporter), reporter);
+        long flatBytes = usedHeap() - before;
+        long nodes = flat.flat.nodeCount();
+        long arrayBytes = flat.flat.footprint();
+        Interpreter interpreter = run(flat);
+        long flatRunBytes = usedHeap() - before;
+        Reference.reachabilityFence(flat);
+        Reference.reachabilityFence(interpreter);
+        flat = null;
+        interpreter = null;
+
+        before = usedHeap();
+        LoxScript objects = compileObjects(source, reporter);
+        long objectBytes = usedHeap() - before;
+        int statements = objects.statements.size();
+        interpreter = run(objects);
+        long objectRunBytes = usedHeap() - before;
+        Reference.reachabilityFence(objects);
+        Reference.reachabilityFence(interpreter);
+
+        System.out.printf("%d nodes in %d top-level statements%n",
+                nodes, statements);
+        System.out.printf("objects: %.1f MB, %.1f bytes/node; " +
+                        "after running %.1f MB%n",
+                objectBytes / 1e6, (double) objectBytes / nodes,
+                objectRunBytes / 1e6);
+        System.out.printf("flat:    %.1f MB, %.1f bytes/node " +
+                        "(arrays %.1f bytes/node); after running %.1f MB%n",
+                flatBytes / 1e6, (double) flatBytes / nodes,
+                (double) arrayBytes / nodes, flatRunBytes / 1e6);
+    }
+
+    // Runs a script to the end, discarding what it prints, and returns
+    // the interpreter, which holds what the script declared.
+    private static Interpreter run(LoxScript script) {
+        Interpreter interpreter =
+                new Interpreter(Sources.nowhere, Sources.quietReporter());
+        interpreter.interpret(script);
+        return interpreter;
+    }
+
+    // What LoxScript.compile() builds without -Dlox.flatAst.
+    private static LoxScript compileObjects(String source,
+                                            ErrorReporter reporter) {
+        List<Stmt> statements =
+                new Parser(new Scanner(source, reporter), reporter).parse();
+        Resolver resolver = new Resolver(reporter);
+        resolver.resolve(statements);
+        Map<Expr, Tuple<Integer, Integer>> locals = resolver.locals();
+        return new LoxScript(List.copyOf(statements), locals);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
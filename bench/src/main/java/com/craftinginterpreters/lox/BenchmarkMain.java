@@ -0,0 +1,28 @@
+package com.craftinginterpreters.lox;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// The JMH command line, with the GC profiler always on, so every result
+// comes with its allocation rate (gc.alloc.rate and gc.alloc.rate.norm,
+// bytes per operation) next to its time. Don't pass -prof gc as well.
+// Usage: java -jar target/benchmarks.jar [JMH options] [benchmark regex]
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        if (options.shouldHelp() || options.shouldList() ||
+                options.shouldListWithParams() ||
+                options.shouldListProfilers() ||
+                options.shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+        new Runner(new OptionsBuilder()
+                .parent(options)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
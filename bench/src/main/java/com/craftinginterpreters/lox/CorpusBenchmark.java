@@ -0,0 +1,194 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// Runs every script in the benchmark corpus (bench/corpus) with each
+// engine, compiling and executing it from scratch each time, after
+// warming up the JVM on it. Median and fastest times go to
+// bench_output.txt, with the change against the stored baseline. The
+// fastest run is the one compared, being the least disturbed by the
+// rest of the machine; more than the threshold slower is flagged as a
+// regression, and so is an engine whose output differs from the first
+// one's.
+// Exits with 1 if anything was flagged. Run from the repository root.
+// Usage: java -cp bench/target/benchmarks.jar \
+//            com.craftinginterpreters.lox.CorpusBenchmark [--runs n]
+//            [--warmup n] [--threshold fraction] [--engines a,b]
+//            [--baseline file] [--update-baseline] [corpus directory]
+class CorpusBenchmark {
+    // A way to get from source to a runnable script. Engines are run
+    // side by side on the same corpus; add new ones here.
+    private interface Engine {
+        LoxScript compile(String source, ErrorReporter reporter);
+    }
+
+    private static final Map<String, Engine> engines = new LinkedHashMap<>();
+
+    static {
+        engines.put("interpreter",
+                (source, reporter) -> LoxScript.compile(source, reporter, false));
+        engines.put("lazy",
+                (source, reporter) -> LoxScript.compile(source, reporter, true));
+        engines.put("flat",
+                (source, reporter) -> FlatAst.compile(new Scanner(source, reporter), reporter));
+    }
+
+    private record Result(String script, String engine, double median,
+                          double fastest) {}
+
+    private static final String HEADER =
+            "# script engine median fastest, in ms; %d runs after %d warmup runs%n";
+
+    public static void main(String[] args) throws IOException {
+        int runs = 10;
+        int warmup = 5;
+        double threshold = 0.10;
+        List<String> selected = new ArrayList<>(engines.keySet());
+        Path baseline = Paths.get("bench/baseline.txt");
+        boolean updateBaseline = false;
+        Path corpus = Paths.get("bench/corpus");
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--runs" -> runs = Integer.parseInt(args[++i]);
+                case "--warmup" -> warmup = Integer.parseInt(args[++i]);
+                case "--threshold" -> threshold = Double.parseDouble(args[++i]);
+                case "--engines" -> selected = Arrays.asList(args[++i].split(","));
+                case "--baseline" -> baseline = Paths.get(args[++i]);
+                case "--update-baseline" -> updateBaseline = true;
+                default -> corpus = Paths.get(args[i]);
+            }
+        }
+        for (String engine : selected) {
+            if (!engines.containsKey(engine)) {
+                System.err.println("Unknown engine '" + engine + "'; known: " +
+                        String.join(", ", engines.keySet()) + ".");
+                System.exit(64);
+            }
+        }
+
+        List<Path> scripts;
+        try (Stream<Path> files = Files.list(corpus)) {
+            scripts = files.filter(path -> path.toString().endsWith(".lox"))
+                    .sorted().toList();
+        }
+
+        boolean flagged = false;
+        List<Result> results = new ArrayList<>();
+        for (Path path : scripts) {
+            String name = path.getFileName().toString().replaceFirst("\\.lox$", "");
+            String source = Files.readString(path);
+
+            String expected = null;
+            for (String engine : selected) {
+                for (int i = 0; i < warmup; i++) run(engine, source);
+                String output = run(engine, source);
+                if (expected == null) {
+                    expected = output;
+                } else if (!output.equals(expected)) {
+                    System.out.printf("%s: %s prints something different " +
+                            "than %s%n", name, engine, selected.get(0));
+                    flagged = true;
+                }
+            }
+
+            // Engines take turns, so that drift hits them all alike.
+            Map<String, double[]> times = new LinkedHashMap<>();
+            for (String engine : selected) times.put(engine, new double[runs]);
+            for (int i = 0; i < runs; i++) {
+                for (String engine : selected) {
+                    System.gc();
+                    long start = System.nanoTime();
+                    run(engine, source);
+                    times.get(engine)[i] = (System.nanoTime() - start) / 1e6;
+                }
+            }
+            for (String engine : selected) {
+                double[] sorted = times.get(engine).clone();
+                Arrays.sort(sorted);
+                results.add(new Result(name, engine, sorted[runs / 2], sorted[0]));
+            }
+        }
+
+        Map<String, Double> baselines = readBaseline(baseline);
+        StringBuilder output = new StringBuilder(
+                String.format(Locale.ROOT, HEADER, runs, warmup));
+        StringBuilder measured = new StringBuilder(output);
+        for (Result result : results) {
+            String line = String.format(Locale.ROOT, "%s %s %.2f %.2f",
+                    result.script(), result.engine(), result.median(),
+                    result.fastest());
+            output.append(line);
+            measured.append(line).append('\n');
+            Double before = baselines.get(result.script() + " " + result.engine());
+            if (before != null) {
+                double change = result.fastest() / before - 1;
+                output.append(String.format(Locale.ROOT, " %+.1f%%", change * 100));
+                if (change > threshold) {
+                    output.append(" REGRESSION");
+                    flagged = true;
+                }
+            }
+            output.append('\n');
+        }
+        Files.writeString(Paths.get("bench_output.txt"), output);
+        if (updateBaseline) Files.writeString(baseline, measured);
+
+        printTable(results, selected);
+        for (String line : output.toString().split("\n")) {
+            if (line.endsWith("REGRESSION")) System.out.println(line);
+        }
+        if (flagged) System.exit(1);
+    }
+
+    // Compiles and runs source in a fresh context, returning what it
+    // printed.
+    private static String run(String engine, String source) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream printed = new PrintStream(out, false, StandardCharsets.UTF_8);
+        Interpreter interpreter = new Interpreter(printed, new ErrorReporter(printed));
+        LoxScript script = engines.get(engine).compile(source, interpreter.reporter);
+        if (script != null) interpreter.interpret(script);
+        printed.flush();
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    // Fastest times by "script engine".
+    private static Map<String, Double> readBaseline(Path path) throws IOException {
+        Map<String, Double> fastest = new HashMap<>();
+        if (!Files.isRegularFile(path)) return fastest;
+        for (String line : Files.readAllLines(path)) {
+            if (line.isBlank() || line.startsWith("#")) continue;
+            String[] fields = line.trim().split("\\s+");
+            fastest.put(fields[0] + " " + fields[1], Double.parseDouble(fields[3]));
+        }
+        return fastest;
+    }
+
+    private static void printTable(List<Result> results, List<String> selected) {
+        System.out.printf("%-20s", "fastest ms");
+        for (String engine : selected) System.out.printf("%14s", engine);
+        System.out.println();
+        for (int i = 0; i < results.size(); i += selected.size()) {
+            System.out.printf("%-20s", results.get(i).script());
+            for (int j = 0; j < selected.size(); j++) {
+                System.out.printf("%14.2f", results.get(i + j).fastest());
+            }
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.craftinginterpreters.lox;
+
+import com.craftinginterpreters.utils.Tuple;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+
+import static com.craftinginterpreters.lox.TokenType.EOF;
+
+// Checks that the faster front-end paths give the same results as the
+// plain ones, on the tests/*.lox programs and on generated sources:
+// ParallelScanner against a single Scanner, with chunks small enough
+// that lexemes and errors straddle every kind of boundary, a
+// LoxDocument after each of a series of random edits against compiling
+// its whole text, and, over the same kind of edits, the syntax errors a
+// lazy parser finds against those of an eager one. Prints each
+// difference and exits with 1 if there was any.
+// Usage: java -cp target/benchmarks.jar \
+//            com.craftinginterpreters.lox.EquivalenceCheck [tests directory]
+class EquivalenceCheck {
+    private static final int[] CHUNK_SIZES = {1, 7, 64, 4096};
+    private static final int[] WINDOWS = {1, 3};
+    private static final int EDITS = 200;
+    // Pasted into documents at random, along with newlines and deletions.
+    private static final String[] SNIPPETS = {
+            "\n", "\n\n", "var x = 1;\n", "fun f(a) { return a; }\n",
+            "{", "}", "(", ";", "\"", "/*", "*/", "class C { m() {} }\n",
+            "print x;", "x = x + 1;", "return;", "this", "trait T {}\n"
+    };
+
+    private static int checks = 0;
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        Path tests = Paths.get(args.length > 0 ? args[0] :
+                System.getProperty("lox.tests", "../tests"));
+
+        Map<String, String> sources = new LinkedHashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(tests, "*.lox")) {
+            for (Path file : files) {
+                sources.put(file.getFileName().toString(), Files.readString(file));
+            }
+        }
+        Map<String, String> programs = new LinkedHashMap<>(sources);
+        sources.put("generated code", ScannerBenchmark.generate(64 * 1024));
+        sources.put("generated data", ScannerBenchmark.generateData(64 * 1024));
+        // An unterminated string and comment run to the end of the source.
+        sources.put("unterminated", "var a = 1;\n\"open\nvar b = 2;\n/* open\n");
+
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            checkScanner(source.getKey(), source.getValue());
+        }
+        for (Map.Entry<String, String> program : programs.entrySet()) {
+            checkDocument(program.getKey(), program.getValue());
+            checkLazy(program.getKey(), program.getValue());
+        }
+
+        System.out.println(checks + " checks, " + failures + " failed");
+        if (failures > 0) System.exit(1);
+    }
+
+    private static void checkScanner(String name, String source) {
+        ErrorReporter expectedErrors = Sources.quietReporter();
+        List<String> expected = tokens(new Scanner(source, expectedErrors));
+
+        for (int chunkSize : CHUNK_SIZES) {
+            for (int window : WINDOWS) {
+                ErrorReporter errors = Sources.quietReporter();
+                List<String> actual = tokens(
+                        new ParallelScanner(source, errors, chunkSize, window));
+                check(name + ", chunks of " + chunkSize + ", window " + window,
+                        "token", expected, actual,
+                        expectedErrors.errors, errors.errors);
+            }
+        }
+    }
+
+    // Also checks that a script taken from the document before an edit
+    // is unchanged by it.
+    private static void checkDocument(String name, String source) {
+        Random random = new Random(name.hashCode());
+        LoxDocument document = new LoxDocument(source);
+        LoxScript earlier = null;
+        List<String> earlierDump = null;
+
+        for (int i = 0; i < EDITS; i++) {
+            String text = document.text();
+            int offset = random.nextInt(text.length() + 1);
+            if (random.nextInt(3) == 0) {
+                int length = Math.min(random.nextInt(8), text.length() - offset);
+                document.edit(offset, length, "");
+            } else {
+                document.edit(offset, 0,
+                        SNIPPETS[random.nextInt(SNIPPETS.length)]);
+            }
+
+            String what = name + ", edit " + (i + 1);
+            ErrorReporter reporter = Sources.quietReporter();
+            LoxScript whole = compile(document.text(), reporter);
+            List<String> expectedDiagnostics = new ArrayList<>();
+            for (Tuple<Integer, String> diagnostic : reporter.diagnostics) {
+                expectedDiagnostics.add("[line " + diagnostic.fst + "] " + diagnostic.snd);
+            }
+            LoxScript script = document.script();
+            check(what, "node", dump(whole), dump(script),
+                    expectedDiagnostics, document.diagnostics());
+
+            if (earlier != null) {
+                check(what + ", earlier script", "node", earlierDump,
+                        dump(earlier), List.of(), List.of());
+            }
+            if (script != null && random.nextInt(4) == 0) {
+                earlier = script;
+                earlierDump = dump(script);
+            }
+        }
+    }
+
+    // The checker that a lazy parser runs over the bodies it skips has to
+    // report exactly what parsing them would.
+    private static void checkLazy(String name, String source) {
+        Random random = new Random(~name.hashCode());
+        StringBuilder text = new StringBuilder(source);
+
+        for (int i = 0; i < EDITS; i++) {
+            int offset = random.nextInt(text.length() + 1);
+            if (random.nextInt(3) == 0) {
+                int length = Math.min(random.nextInt(8), text.length() - offset);
+                text.delete(offset, offset + length);
+            } else {
+                text.insert(offset, SNIPPETS[random.nextInt(SNIPPETS.length)]);
+            }
+
+            check(name + ", lazy, edit " + (i + 1), "diagnostic",
+                    syntaxErrors(text.toString(), false),
+                    syntaxErrors(text.toString(), true), List.of(), List.of());
+        }
+    }
+
+    private static List<String> syntaxErrors(String text, boolean lazyBodies) {
+        ErrorReporter reporter = Sources.quietReporter();
+        new Parser(new Scanner(text, reporter), reporter, lazyBodies).parse();
+        List<String> errors = new ArrayList<>();
+        for (Tuple<Integer, String> diagnostic : reporter.diagnostics) {
+            errors.add("[line " + diagnostic.fst + "] " + diagnostic.snd);
+        }
+        return errors;
+    }
+
+    // Parses every body up front, as LoxDocument does, and stops after
+    // syntax errors, as compiling does.
+    private static LoxScript compile(String text, ErrorReporter reporter) {
+        List<Stmt> statements =
+                new Parser(new Scanner(text, reporter), reporter, false).parse();
+        if (reporter.hadError) return null;
+        Resolver resolver = new Resolver(reporter);
+        resolver.resolve(statements);
+        if (reporter.hadError) return null;
+        return new LoxScript(statements, resolver.locals());
+    }
+
+    // Every node of a script in order, with its tokens' lines and the
+    // resolution of its expressions.
+    private static List<String> dump(LoxScript script) {
+        List<String> lines = new ArrayList<>();
+        if (script == null) {
+            lines.add("no script");
+        } else {
+            dump(script.statements, script.locals, lines);
+        }
+        return lines;
+    }
+
+    private static void dump(Object node, Map<Expr, Tuple<Integer, Integer>> locals,
+                             List<String> lines) {
+        if (node instanceof Token token) {
+            lines.add(token.type + " " + token.lexeme() + " " + token.line());
+        } else if (node instanceof Collection<?> nodes) {
+            for (Object element : nodes) dump(element, locals, lines);
+        } else if (node instanceof Map<?, ?> nodes) {
+            // A class's methods, in a HashMap keyed by identity, so they
+            // are put in an order of their own.
+            List<List<String>> entries = new ArrayList<>();
+            for (Map.Entry<?, ?> entry : nodes.entrySet()) {
+                List<String> dumped = new ArrayList<>();
+                dump(entry.getKey(), locals, dumped);
+                dumped.add(String.valueOf(entry.getValue()));
+                entries.add(dumped);
+            }
+            entries.sort(Comparator.comparing(List::toString));
+            for (List<String> entry : entries) lines.addAll(entry);
+        } else if (node instanceof Expr || node instanceof Stmt) {
+            Tuple<Integer, Integer> local = node instanceof Expr expr ?
+                    locals.get(expr) : null;
+            lines.add(node.getClass().getSimpleName() +
+                    (local == null ? "" : " " + local.fst + ":" + local.snd));
+            for (Field field : node.getClass().getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) continue;
+                try {
+                    field.setAccessible(true);
+                    dump(field.get(node), locals, lines);
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        } else {
+            lines.add(String.valueOf(node));
+        }
+    }
+
+    private static List<String> tokens(TokenStream stream) {
+        List<String> tokens = new ArrayList<>();
+        Token token;
+        do {
+            token = stream.next();
+            tokens.add(token.type + " " + token.lexeme() + " " +
+                    token.literal + " " + token.line());
+        } while (token.type != EOF);
+        return tokens;
+    }
+
+    private static void check(String what, String item, List<String> expected,
+                              List<String> actual, List<String> expectedErrors,
+                              List<String> actualErrors) {
+        checks++;
+        String difference = difference(item, expected, actual);
+        if (difference == null) {
+            difference = difference("diagnostic", expectedErrors, actualErrors);
+        }
+        if (difference != null) {
+            failures++;
+            System.out.println(what + ": " + difference);
+        }
+    }
+
+    // The first place two lists differ, or null if they don't.
+    private static String difference(String item, List<String> expected,
+                                     List<String> actual) {
+        for (int i = 0; i < Math.max(expected.size(), actual.size()); i++) {
+            String want = i < expected.size() ? expected.get(i) : null;
+            String got = i < actual.size() ? actual.get(i) : null;
+            if (!Objects.equals(want, got)) {
+                return item + " " + i + " is " + got + ", expected " + want;
+            }
+        }
+        return null;
+    }
+}
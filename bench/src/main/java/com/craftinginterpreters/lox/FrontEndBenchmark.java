@@ -0,0 +1,75 @@
+package com.craftinginterpreters.lox;
+
+import com.craftinginterpreters.utils.Tuple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Each stage in front of the interpreter on its own: scanning a source
+// into tokens, parsing tokens that were scanned already, and resolving
+// statements that were parsed already.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrontEndBenchmark {
+    @Param({"cake.lox", "circle.lox", "closure.lox", "doughnut.lox",
+            "fib.lox", "fibers.lox", "lambda.lox", "math.lox",
+            "modules.lox", "person.lox", "test1.lox", "test2.lox",
+            "test3.lox", "test4.lox", "test5.lox", "traits.lox",
+            "generated"})
+    public String source;
+
+    private String text;
+    private List<Token> tokens;
+    private List<Stmt> statements;
+    private final ErrorReporter reporter = Sources.quietReporter();
+
+    @Setup
+    public void setUp() {
+        text = Sources.read(source);
+        tokens = new Scanner(text, reporter).scanTokens();
+        statements = new Parser(TokenStream.of(tokens), reporter).parse();
+        if (reporter.hadError) {
+            throw new IllegalStateException(source + " doesn't compile.");
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void clearReporter() {
+        Sources.clear(reporter);
+    }
+
+    @Benchmark
+    public List<Token> scanTokens() {
+        return new Scanner(text, reporter).scanTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        return new Parser(TokenStream.of(tokens), reporter).parse();
+    }
+
+    @Benchmark
+    public Map<Expr, Tuple<Integer, Integer>> resolve() {
+        Resolver resolver = new Resolver(reporter);
+        resolver.resolve(statements);
+        return resolver.locals();
+    }
+}
@@ -0,0 +1,122 @@
+package com.craftinginterpreters.lox;
+
+import com.craftinginterpreters.utils.Tuple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// The operations the interpreter repeats most: reading and assigning a
+// local through the Environment chain, and looking up properties and
+// methods on instances and classes.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RuntimeBenchmark {
+    private static final String CLASSES = """
+            trait Named {
+                name();
+                default greet() { return "hi " + this.name(); }
+            }
+            class Base {
+                init() { this.field = 1; }
+                inherited() { return 1; }
+            }
+            class Middle < Base {}
+            class Derived < Middle (Named) {
+                own() { return 2; }
+                name() { return "derived"; }
+            }
+            var instance = Derived();
+            """;
+
+    // How many scopes out the variable is, as the Resolver counts them.
+    @Param({"0", "3"})
+    public int distance;
+
+    private Environment environment;
+    private Interpreter interpreter;
+    private LoxClass derived;
+    private LoxInstance instance;
+    private final Token field = identifier("field");
+    private final Token own = identifier("own");
+    private final Token inherited = identifier("inherited");
+    private double counter = 0;
+
+    @Setup
+    public void setUp() {
+        environment = new Environment();
+        for (int scope = 0; scope < 4; scope++) {
+            if (scope > 0) environment = new Environment(environment);
+            for (int slot = 0; slot < 8; slot++) {
+                environment.define("v" + slot, (double) slot);
+            }
+        }
+
+        interpreter = new Interpreter(Sources.nowhere, Sources.quietReporter());
+        interpreter.interpret(LoxScript.compile(CLASSES, interpreter.reporter));
+        derived = (LoxClass) interpreter.getGlobal("Derived");
+        instance = (LoxInstance) interpreter.getGlobal("instance");
+    }
+
+    private static Token identifier(String name) {
+        return new Token(TokenType.IDENTIFIER, name, null, 1);
+    }
+
+    @Benchmark
+    public Object environmentGet() {
+        return environment.get(distance, 5);
+    }
+
+    @Benchmark
+    public void environmentAssign() {
+        environment.assign(counter++, distance, 5);
+    }
+
+    @Benchmark
+    public Object instanceGetField() {
+        return instance.get(field, interpreter);
+    }
+
+    @Benchmark
+    public Object instanceGetMethod() {
+        return instance.get(own, interpreter);
+    }
+
+    @Benchmark
+    public Object instanceGetInheritedMethod() {
+        return instance.get(inherited, interpreter);
+    }
+
+    @Benchmark
+    public Tuple<LoxFunction, Boolean> findOwnMethod() {
+        return derived.findMethod("own");
+    }
+
+    @Benchmark
+    public Tuple<LoxFunction, Boolean> findTraitMethod() {
+        return derived.findMethod("greet");
+    }
+
+    @Benchmark
+    public Tuple<LoxFunction, Boolean> findInheritedMethod() {
+        return derived.findMethod("inherited");
+    }
+
+    @Benchmark
+    public Tuple<LoxFunction, Boolean> findMissingMethod() {
+        return derived.findMethod("missing");
+    }
+}
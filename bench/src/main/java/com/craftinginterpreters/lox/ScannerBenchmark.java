@@ -0,0 +1,142 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.craftinginterpreters.lox.TokenType.EOF;
+
+// Scanner throughput on a large generated source, in MB/s, and bytes
+// allocated per token when scanning into Tokens or into a TokenBuffer.
+// Then, on a mapped file that is mostly comments and long strings, the
+// scalar loops against the ones that skip eight bytes at a time.
+// Usage: java -cp target/benchmarks.jar \
+//            com.craftinginterpreters.lox.ScannerBenchmark [megabytes]
+class ScannerBenchmark {
+    private static final String CHUNK = """
+            // A class with a few methods.
+            class Point%1$d {
+                init(x, y) {
+                    this.x = x;
+                    this.y = y;
+                }
+
+                /* Distance from the origin,
+                   squared. */
+                norm() {
+                    return this.x * this.x + this.y * this.y;
+                }
+            }
+
+            fun fib%1$d(n) {
+                if (n <= 1) return n;
+                return fib%1$d(n - 2) + fib%1$d(n - 1);
+            }
+
+            var total = 0;
+            for (var i = 0; i < 100; i += 1) {
+                total = total + fib%1$d(i %% 10) * 1.5;
+            }
+            print "point " + Point%1$d(3, 4).norm();
+            print "tab\\tseparated";
+            """;
+
+    private static final String DATA = """
+            /* Row %1$d of a generated table.
+               /* Nested notes are kept verbatim. */
+               Nothing in here is code. */
+            var row%1$d = "%2$s";  // %2$s
+            var note%1$d = "quoted \\"%2$s\\" value";
+            """;
+
+    public static void main(String[] args) throws IOException {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        String source = generate(megabytes * 1024 * 1024);
+        double size = source.length() / (1024.0 * 1024.0);
+        ErrorReporter reporter = new ErrorReporter(System.err);
+
+        for (boolean buffered : new boolean[] {false, true}) {
+            String mode = buffered ? "buffer" : "tokens";
+            for (int round = 0; round < 10; round++) {
+                long allocated = allocatedBytes();
+                long start = System.nanoTime();
+                long tokens = buffered
+                        ? scanBuffered(source, reporter)
+                        : scan(source, reporter);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                allocated = allocatedBytes() - allocated;
+                System.out.printf(
+                        "%s round %d: %.1f MB/s, %.1f bytes/token " +
+                        "(%d tokens)%n", mode, round, size / seconds,
+                        (double) allocated / tokens, tokens);
+            }
+        }
+
+        Path data = Files.createTempFile("lox-data", ".lox");
+        try {
+            Files.writeString(data, generateData(megabytes * 1024 * 1024),
+                    StandardCharsets.UTF_8);
+            Utf8Source mapped = Utf8Source.map(data);
+            size = mapped.length() / (1024.0 * 1024.0);
+            for (boolean wide : new boolean[] {false, true}) {
+                String mode = wide ? "wide" : "scalar";
+                for (int round = 0; round < 10; round++) {
+                    long start = System.nanoTime();
+                    long tokens = scan(new Scanner(mapped, reporter, wide));
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    System.out.printf("%s round %d: %.1f MB/s (%d tokens)%n",
+                            mode, round, size / seconds, tokens);
+                }
+            }
+        } finally {
+            Files.delete(data);
+        }
+    }
+
+    static String generate(int length) {
+        StringBuilder source = new StringBuilder(length + CHUNK.length());
+        for (int i = 0; source.length() < length; i++) {
+            source.append(String.format(CHUNK, i));
+        }
+        return source.toString();
+    }
+
+    static String generateData(int length) {
+        String cell = "lorem ipsum dolor sit amet ".repeat(8);
+        StringBuilder source = new StringBuilder(length + DATA.length());
+        for (int i = 0; source.length() < length; i++) {
+            source.append(String.format(DATA, i, cell));
+        }
+        return source.toString();
+    }
+
+    private static long scan(String source, ErrorReporter reporter) {
+        return scan(new Scanner(source, reporter));
+    }
+
+    private static long scan(Scanner scanner) {
+        long count = 0;
+        while (scanner.next().type != EOF) count++;
+        return count;
+    }
+
+    // Reads rows the way the Parser does, discarding the old ones.
+    private static long scanBuffered(String source, ErrorReporter reporter) {
+        Scanner scanner = new Scanner(source, reporter);
+        TokenBuffer buffer = scanner.newBuffer();
+        long count = 0;
+        while (buffer.type(scanner.next(buffer)) != EOF) {
+            count++;
+            if (buffer.size() == 256) buffer.discardBefore(256);
+        }
+        return count;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean)
+                ManagementFactory.getThreadMXBean())
+                .getCurrentThreadAllocatedBytes();
+    }
+}
@@ -0,0 +1,50 @@
+package com.craftinginterpreters.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Runs a whole test program in a fresh context, as LoxEngine.execute()
+// does; compiling it is left out. The modules modules.lox imports are
+// read and compiled again in each context, as they would be in a run.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScriptBenchmark {
+    @Param({"cake.lox", "circle.lox", "closure.lox", "doughnut.lox",
+            "fib.lox", "fibers.lox", "lambda.lox", "math.lox",
+            "modules.lox", "person.lox", "test1.lox", "test2.lox", "test3.lox",
+            "test4.lox", "test5.lox", "traits.lox"})
+    public String script;
+
+    private final LoxEngine engine =
+            new LoxEngine(Sources.nowhere, Sources.nowhere);
+    private LoxScript compiled;
+
+    @Setup
+    public void setUp() {
+        compiled = engine.compile(Sources.read(script));
+        // Compiles any deferred function bodies outside the measurement.
+        execute();
+    }
+
+    @Benchmark
+    public LoxContext execute() {
+        LoxContext context = engine.newContext(Sources.path(script));
+        context.execute(compiled);
+        return context;
+    }
+}
@@ -0,0 +1,48 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Inputs shared by the benchmarks. The tests/*.lox programs are looked
+// up in -Dlox.tests, by default ../tests, which is right when running
+// from the bench directory.
+final class Sources {
+    static final PrintStream nowhere =
+            new PrintStream(OutputStream.nullOutputStream());
+
+    private Sources() {}
+
+    // A file from tests/, or "generated" for a megabyte of the source
+    // ScannerBenchmark generates.
+    static String read(String name) {
+        if (name.equals("generated")) {
+            return ScannerBenchmark.generate(1024 * 1024);
+        }
+        try {
+            return Files.readString(path(name));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static Path path(String name) {
+        return Paths.get(System.getProperty("lox.tests", "../tests")).resolve(name);
+    }
+
+    static ErrorReporter quietReporter() {
+        return new ErrorReporter(nowhere);
+    }
+
+    // Benchmarks reuse one reporter, whose lists would otherwise keep
+    // every warning from every invocation.
+    static void clear(ErrorReporter reporter) {
+        reporter.errors.clear();
+        reporter.warnings.clear();
+        reporter.diagnostics.clear();
+    }
+}
@@ -10,12 +10,12 @@ record AstPrinter(Interpreter interpreter) implements Expr.Visitor<String> {
 
     @Override
     public String visitAssignExpr(Expr.Assign expr) {
-        return parenthesize("Assign " + expr.name.lexeme, expr.value);
+        return parenthesize("Assign " + expr.name.lexeme(), expr.value);
     }
 
     @Override
     public String visitBinaryExpr(Expr.Binary expr) {
-        return parenthesize(expr.operator.lexeme,
+        return parenthesize(expr.operator.lexeme(),
                 expr.left, expr.right);
     }
 
@@ -47,7 +47,7 @@ record AstPrinter(Interpreter interpreter) implements Expr.Visitor<String> {
 
     @Override
     public String visitLogicalExpr(Expr.Logical expr) {
-        return parenthesize(capitalize(expr.operator.lexeme), expr.left, expr.right);
+        return parenthesize(capitalize(expr.operator.lexeme()), expr.left, expr.right);
     }
 
     @Override
@@ -72,12 +72,12 @@ record AstPrinter(Interpreter interpreter) implements Expr.Visitor<String> {
 
     @Override
     public String visitUnaryExpr(Expr.Unary expr) {
-        return parenthesize(expr.operator.lexeme, expr.right);
+        return parenthesize(expr.operator.lexeme(), expr.right);
     }
 
     @Override
     public String visitVariableExpr(Expr.Variable expr) {
-        return "(Eval " + expr.name.lexeme + ')';
+        return "(Eval " + expr.name.lexeme() + ')';
     }
 
     private String parenthesize(String name, Expr... exprs) {
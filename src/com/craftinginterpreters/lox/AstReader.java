@@ -0,0 +1,273 @@
+package com.craftinginterpreters.lox;
+
+import com.craftinginterpreters.utils.Tuple;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static com.craftinginterpreters.lox.AstWriter.*;
+
+// Reads the format written by AstWriter. Top-level statements are decoded
+// eagerly; function bodies are set aside (copied out if the buffer is a
+// mapping) and only decoded, and their resolution entries registered,
+// the first time they are used.
+class AstReader {
+    private static final TokenType[] tokenTypes = TokenType.values();
+
+    private final ByteBuffer buffer;
+    private final String[] strings;
+    private final Map<Expr, Tuple<Integer, Integer>> locals;
+    private int position;
+
+    // The buffer must be positioned at the string pool. Resolution entries
+    // are added to locals as nodes are decoded, so it has to be safe for
+    // concurrent use.
+    AstReader(ByteBuffer buffer, Map<Expr, Tuple<Integer, Integer>> locals) {
+        this.buffer = buffer;
+        this.locals = locals;
+        this.position = buffer.position();
+
+        strings = new String[readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] utf8 = new byte[readInt()];
+            buffer.get(position, utf8);
+            position += utf8.length;
+            strings[i] = new String(utf8, StandardCharsets.UTF_8);
+        }
+    }
+
+    private AstReader(AstReader parent, ByteBuffer buffer, int position) {
+        this.buffer = buffer;
+        this.strings = parent.strings;
+        this.locals = parent.locals;
+        this.position = position;
+    }
+
+    List<Stmt> read() {
+        return readStmts();
+    }
+
+    private class LazyBody extends AbstractList<Stmt> implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final transient ByteBuffer bytes;
+        private final int offset;
+        private transient volatile List<Stmt> statements;
+
+        // A mapped cache entry can be rewritten before the body is used,
+        // so the body's bytes are copied out of it now.
+        LazyBody(int offset, int length) {
+            if (buffer.isDirect()) {
+                byte[] copy = new byte[length];
+                buffer.get(offset, copy);
+                this.bytes = ByteBuffer.wrap(copy);
+                this.offset = 0;
+            } else {
+                this.bytes = buffer;
+                this.offset = offset;
+            }
+        }
+
+        private List<Stmt> statements() {
+            List<Stmt> result = statements;
+            if (result == null) {
+                synchronized (this) {
+                    result = statements;
+                    if (result == null) {
+                        result = new AstReader(AstReader.this, bytes, offset).readStmts();
+                        statements = result;
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public Stmt get(int index) {
+            return statements().get(index);
+        }
+
+        @Override
+        public int size() {
+            return statements().size();
+        }
+
+        @Override
+        public Iterator<Stmt> iterator() {
+            return statements().iterator();
+        }
+
+        // Snapshots get the decoded statements, not the cache entry.
+        private Object writeReplace() {
+            return new ArrayList<>(statements());
+        }
+    }
+
+    private List<Stmt> functionBody() {
+        int length = readInt();
+        List<Stmt> body = new LazyBody(position, length);
+        position += length;
+        return body;
+    }
+
+    private List<Stmt> readStmts() {
+        int size = readInt();
+        List<Stmt> statements = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) statements.add(readStmt());
+        return statements;
+    }
+
+    private List<Expr> readExprs() {
+        int size = readInt();
+        List<Expr> exprs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) exprs.add(readExpr());
+        return exprs;
+    }
+
+    private List<Token> readTokens() {
+        int size = readInt();
+        List<Token> tokens = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) tokens.add(readToken());
+        return tokens;
+    }
+
+    private Token readToken() {
+        TokenType type = tokenTypes[readByte()];
+        String lexeme = strings[readInt()];
+        return new Token(type, lexeme, null, readInt());
+    }
+
+    private <E extends Expr> E resolution(E expr) {
+        int depth = readInt();
+        int index = readInt();
+        if (depth > 0) locals.put(expr, new Tuple<>(depth - 1, index - 1));
+        return expr;
+    }
+
+    private Stmt.Function readFunction() {
+        byte tag = readByte();
+        assert tag == FUNCTION;
+        Token name = readToken();
+        List<Token> params = readTokens();
+        return new Stmt.Function(name, params, functionBody());
+    }
+
+    private Stmt readStmt() {
+        byte tag = readByte();
+        switch (tag) {
+            case NULL: return null;
+            case BLOCK: return new Stmt.Block(readStmts());
+            case CLASS: {
+                Token name = readToken();
+                Expr.Variable superclass = (Expr.Variable) readExpr();
+                int traitCount = readInt();
+                List<Expr.Variable> traits = new ArrayList<>(traitCount);
+                for (int i = 0; i < traitCount; i++) {
+                    traits.add((Expr.Variable) readExpr());
+                }
+                int methodCount = readInt();
+                Map<Stmt.Function, Boolean> methods = new HashMap<>();
+                for (int i = 0; i < methodCount; i++) {
+                    Stmt.Function method = readFunction();
+                    methods.put(method, readByte() != 0);
+                }
+                int staticCount = readInt();
+                List<Stmt.Function> staticMethods = new ArrayList<>(staticCount);
+                for (int i = 0; i < staticCount; i++) {
+                    staticMethods.add(readFunction());
+                }
+                return new Stmt.Class(name, superclass, traits, methods, staticMethods);
+            }
+            case EXPRESSION: return new Stmt.Expression(readExpr());
+            case FLOW: return new Stmt.Flow(readToken());
+            case FUNCTION: {
+                Token name = readToken();
+                List<Token> params = readTokens();
+                return new Stmt.Function(name, params, functionBody());
+            }
+            case IF: return new Stmt.If(readExpr(), readStmt(), readStmt());
+            case PRINT: return new Stmt.Print(readExpr());
+            case RETURN: return new Stmt.Return(readToken(), readExpr());
+            case TRAIT: {
+                Token name = readToken();
+                int methodCount = readInt();
+                Map<Token, Integer> methods = new HashMap<>();
+                for (int i = 0; i < methodCount; i++) {
+                    Token method = readToken();
+                    methods.put(method, readInt());
+                }
+                int defaultCount = readInt();
+                List<Stmt.Function> defaultImpls = new ArrayList<>(defaultCount);
+                for (int i = 0; i < defaultCount; i++) {
+                    defaultImpls.add(readFunction());
+                }
+                return new Stmt.Trait(name, methods, defaultImpls);
+            }
+            case VAR: return new Stmt.Var(readToken(), readExpr());
+            case WHILE: return new Stmt.While(readExpr(), readStmt(), readStmt());
+            default:
+                throw new IllegalStateException("Bad statement tag " + tag + ".");
+        }
+    }
+
+    private Expr readExpr() {
+        byte tag = readByte();
+        switch (tag) {
+            case NULL: return null;
+            case ASSIGN: return resolution(new Expr.Assign(readToken(), readExpr()));
+            case BINARY: return new Expr.Binary(readExpr(), readToken(), readExpr());
+            case CALL: return new Expr.Call(readExpr(), readToken(), readExprs());
+            case GET: return new Expr.Get(readExpr(), readToken());
+            case GROUPING: return new Expr.Grouping(readExpr());
+            case LAMBDA: {
+                List<Token> params = readTokens();
+                return new Expr.Lambda(params, functionBody());
+            }
+            case LITERAL: {
+                byte kind = readByte();
+                return switch (kind) {
+                    case NIL -> new Expr.Literal(null);
+                    case FALSE -> new Expr.Literal(false);
+                    case TRUE -> new Expr.Literal(true);
+                    case NUMBER -> new Expr.Literal(readDouble());
+                    default -> new Expr.Literal(strings[readInt()]);
+                };
+            }
+            case LOGICAL: return new Expr.Logical(readExpr(), readToken(), readExpr());
+            case SET: return new Expr.Set(readExpr(), readToken(), readExpr());
+            case SUPER: return resolution(new Expr.Super(readToken(), readToken()));
+            case TERNARY: return new Expr.Ternary(readExpr(), readExpr(), readExpr());
+            case THIS: return resolution(new Expr.This(readToken()));
+            case UNARY: return new Expr.Unary(readToken(), readExpr());
+            case VARIABLE: return resolution(new Expr.Variable(readToken()));
+            default:
+                throw new IllegalStateException("Bad expression tag " + tag + ".");
+        }
+    }
+
+    private byte readByte() {
+        return buffer.get(position++);
+    }
+
+    private int readInt() {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get(position++);
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    private double readDouble() {
+        double value = buffer.getDouble(position);
+        position += 8;
+        return value;
+    }
+}
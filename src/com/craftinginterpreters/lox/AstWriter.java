@@ -0,0 +1,399 @@
+package com.craftinginterpreters.lox;
+
+import com.craftinginterpreters.utils.Tuple;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Serializes a resolved script into the .loxc body format read back by
+// AstReader. Every node starts with a one-byte tag (0 is null); names and
+// lexemes go through a string pool; function bodies are length-prefixed
+// so the reader can skip over them until they are first called.
+class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final byte NULL = 0;
+
+    // Statements.
+    static final byte BLOCK = 1, CLASS = 2, EXPRESSION = 3, FLOW = 4,
+            FUNCTION = 5, IF = 6, PRINT = 7, RETURN = 8, TRAIT = 9, VAR = 10,
+            WHILE = 11;
+
+    // Expressions.
+    static final byte ASSIGN = 20, BINARY = 21, CALL = 22, GET = 23,
+            GROUPING = 24, LAMBDA = 25, LITERAL = 26, LOGICAL = 27, SET = 28,
+            SUPER = 29, TERNARY = 30, THIS = 31, UNARY = 32, VARIABLE = 33;
+
+    // Literal values.
+    static final byte NIL = 0, FALSE = 1, TRUE = 2, NUMBER = 3, STRING = 4;
+
+    private final Map<Expr, Tuple<Integer, Integer>> locals;
+    private final Map<String, Integer> strings = new LinkedHashMap<>();
+    private DataOutputStream out;
+
+    AstWriter(Map<Expr, Tuple<Integer, Integer>> locals) {
+        this.locals = locals;
+    }
+
+    // Returns the string pool followed by the top-level statements.
+    byte[] write(List<Stmt> statements) {
+        try {
+            byte[] body = block(statements);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            out = new DataOutputStream(bytes);
+            writeInt(strings.size());
+            for (String string : strings.keySet()) {
+                byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+                writeInt(utf8.length);
+                out.write(utf8);
+            }
+            out.write(body);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private byte[] block(List<Stmt> statements) throws IOException {
+        DataOutputStream enclosing = out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        out = new DataOutputStream(bytes);
+        try {
+            writeInt(statements.size());
+            for (Stmt statement : statements) write(statement);
+        } finally {
+            out = enclosing;
+        }
+        return bytes.toByteArray();
+    }
+
+    private void functionBody(List<Stmt> body) {
+        try {
+            byte[] bytes = block(body);
+            writeInt(bytes.length);
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void write(Stmt stmt) {
+        if (stmt == null) {
+            tag(NULL);
+        } else {
+            stmt.accept(this);
+        }
+    }
+
+    private void write(Expr expr) {
+        if (expr == null) {
+            tag(NULL);
+        } else {
+            expr.accept(this);
+        }
+    }
+
+    private void writeStmts(List<Stmt> statements) {
+        writeInt(statements.size());
+        for (Stmt statement : statements) write(statement);
+    }
+
+    private void writeExprs(List<Expr> exprs) {
+        writeInt(exprs.size());
+        for (Expr expr : exprs) write(expr);
+    }
+
+    private void writeTokens(List<Token> tokens) {
+        writeInt(tokens.size());
+        for (Token token : tokens) write(token);
+    }
+
+    private void write(Token token) {
+        try {
+            out.writeByte(token.type.ordinal());
+            writeInt(string(token.lexeme()));
+            writeInt(token.line());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Depth 0 marks a global; locals are stored off by one.
+    private void resolution(Expr expr) {
+        Tuple<Integer, Integer> local = locals.get(expr);
+        writeInt(local == null ? 0 : local.fst + 1);
+        writeInt(local == null ? 0 : local.snd + 1);
+    }
+
+    private int string(String string) {
+        return strings.computeIfAbsent(string, k -> strings.size());
+    }
+
+    private void tag(byte tag) {
+        try {
+            out.writeByte(tag);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Counts, indexes and line numbers are small and never negative, so
+    // they are written as little-endian base-128 varints.
+    private void writeInt(int value) {
+        try {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeBoolean(boolean value) {
+        try {
+            out.writeBoolean(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        tag(BLOCK);
+        writeStmts(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        tag(CLASS);
+        write(stmt.name);
+        write(stmt.superclass);
+        writeInt(stmt.traits.size());
+        for (Expr.Variable trait : stmt.traits) write(trait);
+        writeInt(stmt.methods.size());
+        for (Map.Entry<Stmt.Function, Boolean> entry : stmt.methods.entrySet()) {
+            write(entry.getKey());
+            writeBoolean(entry.getValue());
+        }
+        writeInt(stmt.staticMethods.size());
+        for (Stmt.Function method : stmt.staticMethods) write(method);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        tag(EXPRESSION);
+        write(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFlowStmt(Stmt.Flow stmt) {
+        tag(FLOW);
+        write(stmt.type);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        tag(FUNCTION);
+        write(stmt.name);
+        writeTokens(stmt.params);
+        functionBody(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        tag(IF);
+        write(stmt.condition);
+        write(stmt.thenBranch);
+        write(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        tag(PRINT);
+        write(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        tag(RETURN);
+        write(stmt.keyword);
+        write(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitTraitStmt(Stmt.Trait stmt) {
+        tag(TRAIT);
+        write(stmt.name);
+        writeInt(stmt.methods.size());
+        for (Map.Entry<Token, Integer> method : stmt.methods.entrySet()) {
+            write(method.getKey());
+            writeInt(method.getValue());
+        }
+        writeInt(stmt.defaultImpls.size());
+        for (Stmt.Function method : stmt.defaultImpls) write(method);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        tag(VAR);
+        write(stmt.name);
+        write(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        tag(WHILE);
+        write(stmt.condition);
+        write(stmt.body);
+        write(stmt.increment);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        tag(ASSIGN);
+        write(expr.name);
+        write(expr.value);
+        resolution(expr);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        tag(BINARY);
+        write(expr.left);
+        write(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        tag(CALL);
+        write(expr.callee);
+        write(expr.paren);
+        writeExprs(expr.arguments);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        tag(GET);
+        write(expr.object);
+        write(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        tag(GROUPING);
+        write(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLambdaExpr(Expr.Lambda expr) {
+        tag(LAMBDA);
+        writeTokens(expr.params);
+        functionBody(expr.body);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        tag(LITERAL);
+        try {
+            if (expr.value == null) {
+                out.writeByte(NIL);
+            } else if (expr.value instanceof Boolean bool) {
+                out.writeByte(bool ? TRUE : FALSE);
+            } else if (expr.value instanceof Double number) {
+                out.writeByte(NUMBER);
+                out.writeDouble(number);
+            } else {
+                out.writeByte(STRING);
+                writeInt(string((String) expr.value));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        tag(LOGICAL);
+        write(expr.left);
+        write(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        tag(SET);
+        write(expr.object);
+        write(expr.name);
+        write(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        tag(SUPER);
+        write(expr.keyword);
+        write(expr.method);
+        resolution(expr);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        tag(TERNARY);
+        write(expr.condition);
+        write(expr.trueBranch);
+        write(expr.falseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        tag(THIS);
+        write(expr.keyword);
+        resolution(expr);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        tag(UNARY);
+        write(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        tag(VARIABLE);
+        write(expr.name);
+        resolution(expr);
+        return null;
+    }
+}
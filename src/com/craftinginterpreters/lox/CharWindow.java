@@ -0,0 +1,67 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+// A sliding window over a Reader, for Scanner. Indexes are absolute
+// positions in the input. Everything before the mark (the start of the
+// current lexeme) is dropped when the window refills, so the buffer only
+// grows for lexemes longer than itself.
+class CharWindow {
+    private final Reader reader;
+    private char[] buffer = new char[8192];
+    private int base = 0;  // Absolute index of buffer[0].
+    private int size = 0;
+    private int mark = 0;
+    private boolean eof = false;
+
+    CharWindow(Reader reader) {
+        this.reader = reader;
+    }
+
+    boolean has(int index) {
+        while (index >= base + size) {
+            if (eof || !fill()) return false;
+        }
+        return true;
+    }
+
+    // Only valid once has(index) has returned true.
+    char charAt(int index) {
+        return buffer[index - base];
+    }
+
+    String text(int from, int to) {
+        return new String(buffer, from - base, to - from);
+    }
+
+    void mark(int index) {
+        mark = index;
+    }
+
+    private boolean fill() {
+        if (mark > base) {
+            int keep = base + size - mark;
+            System.arraycopy(buffer, mark - base, buffer, 0, keep);
+            base = mark;
+            size = keep;
+        }
+        if (size == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+
+        try {
+            int read = reader.read(buffer, size, buffer.length - size);
+            if (read < 0) {
+                eof = true;
+                return false;
+            }
+            size += read;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.craftinginterpreters.lox;
+
+import com.craftinginterpreters.utils.Tuple;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// The body of a top-level function or method, which the Parser only
+// checks the syntax of, building nothing, noting where it is in the
+// source. It is scanned again, parsed and resolved on the first call,
+// so a library whose functions mostly go unused costs little more than
+// scanning it. Syntax errors are still all reported before anything
+// runs; the price is that resolution errors in a body are only reported
+// when it is first called, and the call fails, and its warnings not at
+// all. -Dlox.lazy=false compiles every body up front instead, which is
+// what CI should run with.
+final class DeferredBody extends AbstractList<Stmt> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    static final boolean enabled =
+            !"false".equals(System.getProperty("lox.lazy"));
+
+    private final Token name;
+    // The body's text, from its '{' to its '}'.
+    private transient CharSequence source;
+    private final int from;
+    private final int to;
+    private final int line;
+    private transient ErrorReporter compileReporter;
+    // Where the Resolver found the function; null if it never got there.
+    private transient Resolver.Context context;
+
+    private transient volatile List<Stmt> statements;
+    // Resolution of the body alone, which the function runs it with.
+    private transient Map<Expr, Tuple<Integer, Integer>> locals;
+    private boolean failed = false;
+
+    DeferredBody(Token name, CharSequence source, int from, int to, int line,
+                 ErrorReporter reporter) {
+        this.name = name;
+        if (source instanceof Utf8Source mapped) {
+            // Only the body is kept, off the mapping, since the file may
+            // change before the first call.
+            this.source = mapped.copy(from, to);
+            this.from = 0;
+            this.to = to - from;
+        } else {
+            this.source = source;
+            this.from = from;
+            this.to = to;
+        }
+        this.line = line;
+        this.compileReporter = reporter;
+    }
+
+    void resolvedIn(Resolver.Context context) {
+        this.context = context;
+    }
+
+    Map<Expr, Tuple<Integer, Integer>> locals() {
+        return locals;
+    }
+
+    // Parses and resolves the body if that hasn't happened yet, passing
+    // any errors on to reporter, and returns its statements. Warnings
+    // are dropped, since they would turn up in the middle of the
+    // program's output.
+    List<Stmt> compile(ErrorReporter reporter) {
+        List<Stmt> result = statements;
+        if (result == null) {
+            synchronized (this) {
+                result = statements;
+                if (result == null) {
+                    ErrorReporter buffered = new ErrorReporter(
+                            new PrintStream(OutputStream.nullOutputStream()));
+                    result = compileWith(buffered);
+                    for (String error : buffered.errors) {
+                        reporter.replayError(error);
+                    }
+                    statements = result;
+                }
+            }
+        }
+        if (failed) {
+            throw new RuntimeError(name,
+                    "Function '" + name.lexeme() + "' has errors.");
+        }
+        return result;
+    }
+
+    private List<Stmt> compileWith(ErrorReporter reporter) {
+        Parser parser = new Parser(
+                new Scanner(source, reporter, from, to, line), reporter);
+        List<Stmt> body = parser.functionBody();
+        source = null;
+
+        if (!reporter.hadError && context != null) {
+            locals = Resolver.resolveBody(context, body, reporter);
+        }
+        failed = reporter.hadError || context == null;
+        if (failed) locals = Map.of();
+        context = null;
+        compileReporter = null;
+        return failed ? List.of() : List.copyOf(body);
+    }
+
+    // Code that walks the AST, rather than calling the function, gets
+    // the body compiled too, reporting to where the script was compiled.
+    private List<Stmt> statements() {
+        List<Stmt> result = statements;
+        if (result != null) return result;
+        try {
+            return compile(compileReporter != null
+                    ? compileReporter
+                    : new ErrorReporter(new PrintStream(OutputStream.nullOutputStream())));
+        } catch (RuntimeError error) {
+            return statements;
+        }
+    }
+
+    @Override
+    public Stmt get(int index) {
+        return statements().get(index);
+    }
+
+    @Override
+    public int size() {
+        return statements().size();
+    }
+
+    @Override
+    public Iterator<Stmt> iterator() {
+        return statements().iterator();
+    }
+
+    // A snapshot holds the compiled body, since the tokens point into a
+    // source that isn't saved.
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        statements();
+        out.defaultWriteObject();
+        out.writeObject(statements);
+        out.writeObject(locals);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        statements = (List<Stmt>) in.readObject();
+        locals = (Map<Expr, Tuple<Integer, Integer>>) in.readObject();
+    }
+}
@@ -0,0 +1,188 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Finds the files a script will pull in: calls to loadFile() and import()
+// whose argument is a string literal. Function bodies aren't searched,
+// both because they may never run and because visiting them would force
+// lazily loaded bodies to be decoded.
+class DependencyScanner implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    final List<String> loadedFiles = new ArrayList<>();
+    final List<String> imports = new ArrayList<>();
+
+    DependencyScanner(List<Stmt> statements) {
+        scan(statements);
+    }
+
+    private void scan(List<Stmt> statements) {
+        for (Stmt statement : statements) scan(statement);
+    }
+
+    private void scan(Stmt stmt) {
+        if (stmt != null) stmt.accept(this);
+    }
+
+    private void scan(Expr expr) {
+        if (expr != null) expr.accept(this);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        scan(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        scan(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFlowStmt(Stmt.Flow stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        scan(stmt.condition);
+        scan(stmt.thenBranch);
+        scan(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        scan(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        scan(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitTraitStmt(Stmt.Trait stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        scan(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        scan(stmt.condition);
+        scan(stmt.body);
+        scan(stmt.increment);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        scan(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        scan(expr.left);
+        scan(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Variable callee &&
+                expr.arguments.size() == 1 &&
+                expr.arguments.get(0) instanceof Expr.Literal argument &&
+                argument.value instanceof String path) {
+            if (callee.name.lexeme().equals("loadFile")) loadedFiles.add(path);
+            if (callee.name.lexeme().equals("import")) imports.add(path);
+        }
+
+        scan(expr.callee);
+        for (Expr argument : expr.arguments) scan(argument);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        scan(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        scan(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLambdaExpr(Expr.Lambda expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        scan(expr.left);
+        scan(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        scan(expr.object);
+        scan(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        scan(expr.condition);
+        scan(expr.trueBranch);
+        scan(expr.falseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        scan(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        return null;
+    }
+}
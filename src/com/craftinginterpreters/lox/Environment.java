@@ -2,20 +2,31 @@ package com.craftinginterpreters.lox;
 
 import com.craftinginterpreters.utils.Tuple;
 
+import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.List;
 
-class Environment {
+class Environment implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     final Environment enclosing;
+    // Environments between this one and the top level.
+    final int depth;
 
-    private final List<Tuple<String, Object>> values = new ArrayList<>();
+    private final ArrayList<Tuple<String, Object>> values = new ArrayList<>();
 
     Environment() {
         enclosing = null;
+        depth = 0;
+        if (Metrics.enabled) Metrics.environments.increment();
     }
 
     Environment(Environment enclosing) {
         this.enclosing = enclosing;
+        depth = enclosing.depth + 1;
+        if (Metrics.enabled) {
+            Metrics.environments.increment();
+            Metrics.peakDepth.accumulate(depth);
+        }
     }
 
     Object get(int distance, int index) {
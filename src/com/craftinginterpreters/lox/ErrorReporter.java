@@ -0,0 +1,86 @@
+package com.craftinginterpreters.lox;
+
+import com.craftinginterpreters.utils.Tuple;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Error state for one pipeline, so that separate contexts don't share
+// their hadError/hadRuntimeError flags. Fibers report runtime errors from
+// their own threads, hence the synchronized lists and volatile flags.
+class ErrorReporter {
+    private final PrintStream err;
+    final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    final List<Tuple<Integer, String>> warnings =
+            Collections.synchronizedList(new ArrayList<>());
+    // Every error and warning as a line and the rest of its report, for
+    // LoxDocument, which renumbers them after edits.
+    final List<Tuple<Integer, String>> diagnostics =
+            Collections.synchronizedList(new ArrayList<>());
+    volatile boolean hadError = false;
+    volatile boolean hadRuntimeError = false;
+
+    ErrorReporter(PrintStream err) {
+        this.err = err;
+    }
+
+    void error(int line, String message) {
+        hadError = true;
+        report(line, "", message, 0);
+    }
+
+    void error(Token token, String message) {
+        hadError = true;
+        if (token.type == TokenType.EOF) {
+            report(token.line(), " at end", message, 0);
+        } else {
+            report(token.line(), " at '" + token.lexeme() + "'", message, 0);
+        }
+    }
+
+    void warning(int line, String message) {
+        warnings.add(new Tuple<>(line, message));
+        report(line, "", message, 1);
+    }
+
+    void runtimeError(RuntimeError error) {
+        String report = error.getMessage() + "\n[line " + error.token.line() + "]";
+        err.println(report);
+        errors.add(report);
+        hadRuntimeError = true;
+
+        if (LoxEvents.enabled) LoxEvents.scriptError(error);
+    }
+
+    // Reports an error that was formatted ahead of time.
+    void replayError(String report) {
+        hadError = true;
+        err.println(report);
+        err.flush();
+        errors.add(report);
+    }
+
+    // Passes on what a reporter for work done ahead of time collected.
+    void replay(String output, ErrorReporter other) {
+        err.print(output);
+        err.flush();
+        errors.addAll(other.errors);
+        warnings.addAll(other.warnings);
+        hadError |= other.hadError;
+    }
+
+    private void report(int line, String where, String message, int type) {
+        String typeStr = switch (type) {
+            case 0 -> "Error";
+            case 1 -> "Warning";
+            default -> "";
+        };
+        String report = "[line " + line + "] " + typeStr + where + ": " + message;
+        diagnostics.add(new Tuple<>(line, typeStr + where + ": " + message));
+        err.println(report);
+        err.flush();
+        if (type == 0) errors.add(report);
+    }
+}
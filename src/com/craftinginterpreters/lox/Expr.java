@@ -1,9 +1,13 @@
 package com.craftinginterpreters.lox;
 
+import java.io.Serializable;
 import java.util.List;
 import com.craftinginterpreters.utils.*;
 
-abstract class Expr {
+@SuppressWarnings("serial")
+abstract class Expr implements Serializable {
+	private static final long serialVersionUID = 1L;
+
 	interface Visitor<R> {
 		R visitAssignExpr(Assign expr);
 		R visitBinaryExpr(Binary expr);
@@ -21,6 +25,8 @@ abstract class Expr {
 		R visitVariableExpr(Variable expr);
 	}
 	static class Assign extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		Assign(Token name, Expr value) {
 			this.name = name;
 			this.value = value;
@@ -35,6 +41,8 @@ abstract class Expr {
 		}
 	}
 	static class Binary extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		Binary(Expr left, Token operator, Expr right) {
 			this.left = left;
 			this.operator = operator;
@@ -51,6 +59,8 @@ abstract class Expr {
 		}
 	}
 	static class Call extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		Call(Expr callee, Token paren, List<Expr> arguments) {
 			this.callee = callee;
 			this.paren = paren;
@@ -67,6 +77,8 @@ abstract class Expr {
 		}
 	}
 	static class Get extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		Get(Expr object, Token name) {
 			this.object = object;
 			this.name = name;
@@ -81,6 +93,8 @@ abstract class Expr {
 		}
 	}
 	static class Grouping extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		Grouping(Expr expression) {
 			this.expression = expression;
 		}
@@ -93,6 +107,8 @@ abstract class Expr {
 		}
 	}
 	static class Lambda extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		Lambda(List<Token> params, List<Stmt> body) {
 			this.params = params;
 			this.body = body;
@@ -107,6 +123,8 @@ abstract class Expr {
 		}
 	}
 	static class Literal extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		Literal(Object value) {
 			this.value = value;
 		}
@@ -119,6 +137,8 @@ abstract class Expr {
 		}
 	}
 	static class Logical extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		Logical(Expr left, Token operator, Expr right) {
 			this.left = left;
 			this.operator = operator;
@@ -135,6 +155,8 @@ abstract class Expr {
 		}
 	}
 	static class Set extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		Set(Expr object, Token name, Expr value) {
 			this.object = object;
 			this.name = name;
@@ -151,6 +173,8 @@ abstract class Expr {
 		}
 	}
 	static class Super extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		Super(Token keyword, Token method) {
 			this.keyword = keyword;
 			this.method = method;
@@ -165,6 +189,8 @@ abstract class Expr {
 		}
 	}
 	static class Ternary extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		Ternary(Expr condition, Expr trueBranch, Expr falseBranch) {
 			this.condition = condition;
 			this.trueBranch = trueBranch;
@@ -181,6 +207,8 @@ abstract class Expr {
 		}
 	}
 	static class This extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		This(Token keyword) {
 			this.keyword = keyword;
 		}
@@ -193,6 +221,8 @@ abstract class Expr {
 		}
 	}
 	static class Unary extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		Unary(Token operator, Expr right) {
 			this.operator = operator;
 			this.right = right;
@@ -207,6 +237,8 @@ abstract class Expr {
 		}
 	}
 	static class Variable extends Expr {
+		private static final long serialVersionUID = 1L;
+
 		Variable(Token name) {
 			this.name = name;
 		}
@@ -0,0 +1,783 @@
+package com.craftinginterpreters.lox;
+
+import com.craftinginterpreters.utils.Tuple;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.craftinginterpreters.lox.AstWriter.*;
+
+// A whole program kept in a few primitive arrays, for generated scripts
+// whose object AST wouldn't fit in the heap. A node is an offset into
+// code holding its kind (an AstWriter tag) and then its fields: other
+// nodes as offsets (-1 for null), tokens as indexes into the token
+// columns, lists as a length followed by the items, and for variables
+// the resolved depth (0 for a global, else depth + 1) and slot.
+//
+// The visitors still work on Expr and Stmt objects. A top-level
+// statement is inflated from the arrays each time it is run, and
+// dropped after, and a function body the first time the function is
+// called, so code that never runs never exists as objects. Inflated
+// variables carry their resolution from the arrays rather than being
+// entered in a map, which would keep every one of them alive. Enable
+// with -Dlox.flatAst=true.
+final class FlatAst {
+    static final boolean enabled = Boolean.getBoolean("lox.flatAst");
+
+    private static final TokenType[] tokenTypes = TokenType.values();
+
+    private final Ints code = new Ints();
+    private int nodes = 0;
+
+    private final Bytes tokenTypeIds = new Bytes();
+    private final Ints tokenLexemes = new Ints();
+    private final Ints tokenLines = new Ints();
+
+    private double[] numbers = new double[64];
+    private int numberCount = 0;
+
+    // Lexemes and string literals, each stored once.
+    private Map<String, Integer> stringIds = new HashMap<>();
+    private String[] strings;
+
+    private int[] topLevel = new int[64];
+    private int topLevelCount = 0;
+
+    final Map<Expr, Tuple<Integer, Integer>> locals = Resolution.instance;
+
+    // The columns grow a page at a time, so that nothing already written
+    // is ever copied: growing a single array would need twice the
+    // memory for a moment.
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private static final class Ints {
+        private int[][] pages = new int[8][];
+        private int size = 0;
+
+        int get(int index) {
+            return pages[index >>> PAGE_BITS][index & PAGE_MASK];
+        }
+
+        void set(int index, int value) {
+            pages[index >>> PAGE_BITS][index & PAGE_MASK] = value;
+        }
+
+        // Makes room for length more values and returns the first index.
+        int grow(int length) {
+            int start = size;
+            size += length;
+            int needed = ((size - 1) >>> PAGE_BITS) + 1;
+            if (needed > pages.length) {
+                pages = Arrays.copyOf(pages, Math.max(needed, pages.length * 2));
+            }
+            for (int page = needed - 1; page >= 0 && pages[page] == null; page--) {
+                pages[page] = new int[PAGE_SIZE];
+            }
+            return start;
+        }
+
+        long bytes() {
+            return (((long) size + PAGE_MASK) >>> PAGE_BITS) * PAGE_SIZE * 4;
+        }
+    }
+
+    private static final class Bytes {
+        private byte[][] pages = new byte[8][];
+        private int size = 0;
+
+        byte get(int index) {
+            return pages[index >>> PAGE_BITS][index & PAGE_MASK];
+        }
+
+        int add(byte value) {
+            if ((size & PAGE_MASK) == 0) {
+                int page = size >>> PAGE_BITS;
+                if (page == pages.length) pages = Arrays.copyOf(pages, page * 2);
+                pages[page] = new byte[PAGE_SIZE];
+            }
+            pages[size >>> PAGE_BITS][size & PAGE_MASK] = value;
+            return size++;
+        }
+
+        long bytes() {
+            return (((long) size + PAGE_MASK) >>> PAGE_BITS) * PAGE_SIZE;
+        }
+    }
+
+    private FlatAst() {}
+
+    // Parses and resolves one top-level declaration at a time, flattening
+    // each before the next is parsed, so the object AST never exists as
+    // a whole. Diagnostics come out as from LoxScript.compile(): resolver
+    // diagnostics are held back and dropped if there is a syntax error.
+    static LoxScript compile(TokenStream tokens, ErrorReporter reporter) {
+        Parser parser = new Parser(tokens, reporter);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ErrorReporter resolution = new ErrorReporter(new PrintStream(output, true));
+        Map<String, Map<String, Integer>> traits = new HashMap<>();
+        FlatAst ast = new FlatAst();
+
+        while (!parser.atEnd()) {
+            Stmt statement = parser.declaration();
+            // Keep parsing after a syntax error to report the rest.
+            if (reporter.hadError) continue;
+
+            Resolver resolver = new Resolver(resolution, traits);
+            resolver.resolve(List.of(statement));
+            traits.putAll(resolver.declaredTraits);
+            ast.add(statement, resolver.locals());
+        }
+
+        // Stop if there was a syntax error.
+        if (reporter.hadError) return null;
+
+        reporter.replay(output.toString(), resolution);
+
+        // Stop if there was a resolution error.
+        if (reporter.hadError) return null;
+
+        ast.finish();
+        return new LoxScript(ast.new Statements(), ast.locals, ast);
+    }
+
+    int nodeCount() {
+        return nodes;
+    }
+
+    // Bytes held by the arrays, for comparing with the object AST.
+    long footprint() {
+        long bytes = code.bytes() + tokenTypeIds.bytes() +
+                tokenLexemes.bytes() + tokenLines.bytes() +
+                8L * numbers.length + 4L * topLevel.length;
+        for (String string : strings) bytes += 40 + string.length();
+        return bytes;
+    }
+
+    private void add(Stmt statement, Map<Expr, Tuple<Integer, Integer>> resolved) {
+        int node = new Flattener(resolved).write(statement);
+        if (topLevelCount == topLevel.length) {
+            topLevel = Arrays.copyOf(topLevel, topLevelCount * 2);
+        }
+        topLevel[topLevelCount++] = node;
+    }
+
+    // Trims the arrays and drops what was only needed while building.
+    private void finish() {
+        numbers = Arrays.copyOf(numbers, numberCount);
+        topLevel = Arrays.copyOf(topLevel, topLevelCount);
+
+        strings = new String[stringIds.size()];
+        for (Map.Entry<String, Integer> entry : stringIds.entrySet()) {
+            strings[entry.getValue()] = entry.getKey();
+        }
+        stringIds = null;
+    }
+
+    private class Flattener implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+        private final Map<Expr, Tuple<Integer, Integer>> resolved;
+
+        Flattener(Map<Expr, Tuple<Integer, Integer>> resolved) {
+            this.resolved = resolved;
+        }
+
+        int write(Stmt stmt) {
+            return stmt == null ? -1 : stmt.accept(this);
+        }
+
+        private int write(Expr expr) {
+            return expr == null ? -1 : expr.accept(this);
+        }
+
+        // Reserves a node, whose fields are filled in as its children
+        // are written.
+        private int node(byte kind, int length) {
+            int node = code.grow(length);
+            code.set(node, kind);
+            nodes++;
+            return node;
+        }
+
+        private void set(int index, int value) {
+            code.set(index, value);
+        }
+
+        private void setStmts(int index, List<? extends Stmt> statements) {
+            set(index, statements.size());
+            for (int i = 0; i < statements.size(); i++) {
+                set(index + 1 + i, write(statements.get(i)));
+            }
+        }
+
+        private void setExprs(int index, List<? extends Expr> exprs) {
+            set(index, exprs.size());
+            for (int i = 0; i < exprs.size(); i++) {
+                set(index + 1 + i, write(exprs.get(i)));
+            }
+        }
+
+        private void setTokens(int index, List<Token> list) {
+            set(index, list.size());
+            for (int i = 0; i < list.size(); i++) {
+                set(index + 1 + i, token(list.get(i)));
+            }
+        }
+
+        private void setResolution(int index, Expr expr) {
+            Tuple<Integer, Integer> local = resolved.get(expr);
+            set(index, local == null ? 0 : local.fst + 1);
+            set(index + 1, local == null ? 0 : local.snd);
+        }
+
+        private int token(Token token) {
+            tokenLexemes.set(tokenLexemes.grow(1), string(token.lexeme()));
+            tokenLines.set(tokenLines.grow(1), token.line());
+            return tokenTypeIds.add((byte) token.type.ordinal());
+        }
+
+        private int string(String string) {
+            Integer id = stringIds.get(string);
+            if (id == null) {
+                id = stringIds.size();
+                stringIds.put(string, id);
+            }
+            return id;
+        }
+
+        @Override
+        public Integer visitBlockStmt(Stmt.Block stmt) {
+            int node = node(BLOCK, 2 + stmt.statements.size());
+            setStmts(node + 1, stmt.statements);
+            return node;
+        }
+
+        @Override
+        public Integer visitClassStmt(Stmt.Class stmt) {
+            int node = node(CLASS, 6 + stmt.traits.size() +
+                    2 * stmt.methods.size() + stmt.staticMethods.size());
+            set(node + 1, token(stmt.name));
+            set(node + 2, write(stmt.superclass));
+            int at = node + 3;
+            setExprs(at, stmt.traits);
+            at += 1 + stmt.traits.size();
+            set(at++, stmt.methods.size());
+            for (Map.Entry<Stmt.Function, Boolean> entry : stmt.methods.entrySet()) {
+                set(at++, write(entry.getKey()));
+                set(at++, entry.getValue() ? 1 : 0);
+            }
+            setStmts(at, stmt.staticMethods);
+            return node;
+        }
+
+        @Override
+        public Integer visitExpressionStmt(Stmt.Expression stmt) {
+            int node = node(EXPRESSION, 2);
+            set(node + 1, write(stmt.expression));
+            return node;
+        }
+
+        @Override
+        public Integer visitFlowStmt(Stmt.Flow stmt) {
+            int node = node(FLOW, 2);
+            set(node + 1, token(stmt.type));
+            return node;
+        }
+
+        @Override
+        public Integer visitFunctionStmt(Stmt.Function stmt) {
+            int params = stmt.params.size();
+            int node = node(FUNCTION, 4 + params + stmt.body.size());
+            set(node + 1, token(stmt.name));
+            setTokens(node + 2, stmt.params);
+            setStmts(node + 3 + params, stmt.body);
+            return node;
+        }
+
+        @Override
+        public Integer visitIfStmt(Stmt.If stmt) {
+            int node = node(IF, 4);
+            set(node + 1, write(stmt.condition));
+            set(node + 2, write(stmt.thenBranch));
+            set(node + 3, write(stmt.elseBranch));
+            return node;
+        }
+
+        @Override
+        public Integer visitPrintStmt(Stmt.Print stmt) {
+            int node = node(PRINT, 2);
+            set(node + 1, write(stmt.expression));
+            return node;
+        }
+
+        @Override
+        public Integer visitReturnStmt(Stmt.Return stmt) {
+            int node = node(RETURN, 3);
+            set(node + 1, token(stmt.keyword));
+            set(node + 2, write(stmt.value));
+            return node;
+        }
+
+        @Override
+        public Integer visitTraitStmt(Stmt.Trait stmt) {
+            int node = node(TRAIT, 4 + 2 * stmt.methods.size() +
+                    stmt.defaultImpls.size());
+            set(node + 1, token(stmt.name));
+            int at = node + 2;
+            set(at++, stmt.methods.size());
+            for (Map.Entry<Token, Integer> method : stmt.methods.entrySet()) {
+                set(at++, token(method.getKey()));
+                set(at++, method.getValue());
+            }
+            setStmts(at, stmt.defaultImpls);
+            return node;
+        }
+
+        @Override
+        public Integer visitVarStmt(Stmt.Var stmt) {
+            int node = node(VAR, 3);
+            set(node + 1, token(stmt.name));
+            set(node + 2, write(stmt.initializer));
+            return node;
+        }
+
+        @Override
+        public Integer visitWhileStmt(Stmt.While stmt) {
+            int node = node(WHILE, 4);
+            set(node + 1, write(stmt.condition));
+            set(node + 2, write(stmt.body));
+            set(node + 3, write(stmt.increment));
+            return node;
+        }
+
+        @Override
+        public Integer visitAssignExpr(Expr.Assign expr) {
+            int node = node(ASSIGN, 5);
+            set(node + 1, token(expr.name));
+            set(node + 2, write(expr.value));
+            setResolution(node + 3, expr);
+            return node;
+        }
+
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary expr) {
+            return binary(BINARY, expr.left, expr.operator, expr.right);
+        }
+
+        private int binary(byte kind, Expr left, Token operator, Expr right) {
+            int node = node(kind, 4);
+            set(node + 1, write(left));
+            set(node + 2, token(operator));
+            set(node + 3, write(right));
+            return node;
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call expr) {
+            int node = node(CALL, 4 + expr.arguments.size());
+            set(node + 1, write(expr.callee));
+            set(node + 2, token(expr.paren));
+            setExprs(node + 3, expr.arguments);
+            return node;
+        }
+
+        @Override
+        public Integer visitGetExpr(Expr.Get expr) {
+            int node = node(GET, 3);
+            set(node + 1, write(expr.object));
+            set(node + 2, token(expr.name));
+            return node;
+        }
+
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping expr) {
+            int node = node(GROUPING, 2);
+            set(node + 1, write(expr.expression));
+            return node;
+        }
+
+        @Override
+        public Integer visitLambdaExpr(Expr.Lambda expr) {
+            int params = expr.params.size();
+            int node = node(LAMBDA, 3 + params + expr.body.size());
+            setTokens(node + 1, expr.params);
+            setStmts(node + 2 + params, expr.body);
+            return node;
+        }
+
+        @Override
+        public Integer visitLiteralExpr(Expr.Literal expr) {
+            int node = node(LITERAL, 3);
+            if (expr.value == null) {
+                set(node + 1, NIL);
+            } else if (expr.value instanceof Boolean bool) {
+                set(node + 1, bool ? TRUE : FALSE);
+            } else if (expr.value instanceof Double number) {
+                if (numberCount == numbers.length) {
+                    numbers = Arrays.copyOf(numbers, numberCount * 2);
+                }
+                numbers[numberCount] = number;
+                set(node + 1, NUMBER);
+                set(node + 2, numberCount++);
+            } else {
+                set(node + 1, STRING);
+                set(node + 2, string((String) expr.value));
+            }
+            return node;
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical expr) {
+            return binary(LOGICAL, expr.left, expr.operator, expr.right);
+        }
+
+        @Override
+        public Integer visitSetExpr(Expr.Set expr) {
+            int node = node(SET, 4);
+            set(node + 1, write(expr.object));
+            set(node + 2, token(expr.name));
+            set(node + 3, write(expr.value));
+            return node;
+        }
+
+        @Override
+        public Integer visitSuperExpr(Expr.Super expr) {
+            int node = node(SUPER, 5);
+            set(node + 1, token(expr.keyword));
+            set(node + 2, token(expr.method));
+            setResolution(node + 3, expr);
+            return node;
+        }
+
+        @Override
+        public Integer visitTernaryExpr(Expr.Ternary expr) {
+            int node = node(TERNARY, 4);
+            set(node + 1, write(expr.condition));
+            set(node + 2, write(expr.trueBranch));
+            set(node + 3, write(expr.falseBranch));
+            return node;
+        }
+
+        @Override
+        public Integer visitThisExpr(Expr.This expr) {
+            int node = node(THIS, 4);
+            set(node + 1, token(expr.keyword));
+            setResolution(node + 2, expr);
+            return node;
+        }
+
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary expr) {
+            int node = node(UNARY, 3);
+            set(node + 1, token(expr.operator));
+            set(node + 2, write(expr.right));
+            return node;
+        }
+
+        @Override
+        public Integer visitVariableExpr(Expr.Variable expr) {
+            int node = node(VARIABLE, 4);
+            set(node + 1, token(expr.name));
+            setResolution(node + 2, expr);
+            return node;
+        }
+    }
+
+    // The top-level statements, inflated afresh each time they are read.
+    // Nothing keeps a statement once it has run, except what it declared.
+    private class Statements extends AbstractList<Stmt> {
+        @Override
+        public Stmt get(int index) {
+            return stmt(topLevel[index]);
+        }
+
+        @Override
+        public int size() {
+            return topLevel.length;
+        }
+    }
+
+    // The resolution table of a flat script, which asks the node. Only
+    // get() means anything: it can't be iterated.
+    private static final class Resolution
+            extends AbstractMap<Expr, Tuple<Integer, Integer>>
+            implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        static final Resolution instance = new Resolution();
+
+        @Override
+        public Tuple<Integer, Integer> get(Object expr) {
+            return expr instanceof Resolved resolved ? resolved.local() : null;
+        }
+
+        @Override
+        public boolean containsKey(Object expr) {
+            return get(expr) != null;
+        }
+
+        @Override
+        public Set<Entry<Expr, Tuple<Integer, Integer>>> entrySet() {
+            return Set.of();
+        }
+
+        private Object readResolve() {
+            return instance;
+        }
+    }
+
+    // Inflated nodes of the kinds the Resolver resolves. local is null
+    // for a global.
+    private interface Resolved {
+        Tuple<Integer, Integer> local();
+    }
+
+    private static final class Assign extends Expr.Assign implements Resolved {
+        private static final long serialVersionUID = 1L;
+
+        private final Tuple<Integer, Integer> local;
+
+        Assign(Token name, Expr value, Tuple<Integer, Integer> local) {
+            super(name, value);
+            this.local = local;
+        }
+
+        @Override
+        public Tuple<Integer, Integer> local() {
+            return local;
+        }
+    }
+
+    private static final class Super extends Expr.Super implements Resolved {
+        private static final long serialVersionUID = 1L;
+
+        private final Tuple<Integer, Integer> local;
+
+        Super(Token keyword, Token method, Tuple<Integer, Integer> local) {
+            super(keyword, method);
+            this.local = local;
+        }
+
+        @Override
+        public Tuple<Integer, Integer> local() {
+            return local;
+        }
+    }
+
+    private static final class This extends Expr.This implements Resolved {
+        private static final long serialVersionUID = 1L;
+
+        private final Tuple<Integer, Integer> local;
+
+        This(Token keyword, Tuple<Integer, Integer> local) {
+            super(keyword);
+            this.local = local;
+        }
+
+        @Override
+        public Tuple<Integer, Integer> local() {
+            return local;
+        }
+    }
+
+    private static final class Variable extends Expr.Variable implements Resolved {
+        private static final long serialVersionUID = 1L;
+
+        private final Tuple<Integer, Integer> local;
+
+        Variable(Token name, Tuple<Integer, Integer> local) {
+            super(name);
+            this.local = local;
+        }
+
+        @Override
+        public Tuple<Integer, Integer> local() {
+            return local;
+        }
+    }
+
+    // A function body, inflated the first time the function is called.
+    private class Body extends AbstractList<Stmt> implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int list;
+        private transient volatile List<Stmt> statements;
+
+        Body(int list) {
+            this.list = list;
+        }
+
+        private List<Stmt> statements() {
+            List<Stmt> result = statements;
+            if (result == null) {
+                synchronized (this) {
+                    result = statements;
+                    if (result == null) {
+                        result = stmts(list);
+                        statements = result;
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public Stmt get(int index) {
+            return statements().get(index);
+        }
+
+        @Override
+        public int size() {
+            return code.get(list);
+        }
+
+        @Override
+        public Iterator<Stmt> iterator() {
+            return statements().iterator();
+        }
+
+        // Snapshots get the inflated statements, not the arrays.
+        private Object writeReplace() {
+            return new ArrayList<>(statements());
+        }
+    }
+
+    Stmt stmt(int node) {
+        if (node == -1) return null;
+        switch (code.get(node)) {
+            case BLOCK: return new Stmt.Block(stmts(node + 1));
+            case CLASS: {
+                Token name = token(code.get(node + 1));
+                Expr.Variable superclass = (Expr.Variable) expr(code.get(node + 2));
+                int at = node + 3;
+                List<Expr.Variable> traits = new ArrayList<>(code.get(at));
+                for (int i = 0; i < code.get(node + 3); i++) {
+                    traits.add((Expr.Variable) expr(code.get(++at)));
+                }
+                int methodCount = code.get(++at);
+                Map<Stmt.Function, Boolean> methods = new HashMap<>();
+                for (int i = 0; i < methodCount; i++) {
+                    Stmt.Function method = (Stmt.Function) stmt(code.get(++at));
+                    methods.put(method, code.get(++at) != 0);
+                }
+                List<Stmt.Function> staticMethods = new ArrayList<>(code.get(++at));
+                for (Stmt method : stmts(at)) {
+                    staticMethods.add((Stmt.Function) method);
+                }
+                return new Stmt.Class(name, superclass, traits, methods, staticMethods);
+            }
+            case EXPRESSION: return new Stmt.Expression(expr(code.get(node + 1)));
+            case FLOW: return new Stmt.Flow(token(code.get(node + 1)));
+            case FUNCTION: {
+                Token name = token(code.get(node + 1));
+                List<Token> params = tokens(node + 2);
+                return new Stmt.Function(name, params,
+                        new Body(node + 3 + params.size()));
+            }
+            case IF: return new Stmt.If(expr(code.get(node + 1)),
+                    stmt(code.get(node + 2)), stmt(code.get(node + 3)));
+            case PRINT: return new Stmt.Print(expr(code.get(node + 1)));
+            case RETURN: return new Stmt.Return(token(code.get(node + 1)),
+                    expr(code.get(node + 2)));
+            case TRAIT: {
+                Token name = token(code.get(node + 1));
+                int at = node + 2;
+                int methodCount = code.get(at);
+                Map<Token, Integer> methods = new HashMap<>();
+                for (int i = 0; i < methodCount; i++) {
+                    Token method = token(code.get(++at));
+                    methods.put(method, code.get(++at));
+                }
+                List<Stmt.Function> defaultImpls = new ArrayList<>(code.get(++at));
+                for (Stmt method : stmts(at)) {
+                    defaultImpls.add((Stmt.Function) method);
+                }
+                return new Stmt.Trait(name, methods, defaultImpls);
+            }
+            case VAR: return new Stmt.Var(token(code.get(node + 1)), expr(code.get(node + 2)));
+            case WHILE: return new Stmt.While(expr(code.get(node + 1)),
+                    stmt(code.get(node + 2)), stmt(code.get(node + 3)));
+            default:
+                throw new IllegalStateException("Bad statement node " + code.get(node) + ".");
+        }
+    }
+
+    Expr expr(int node) {
+        if (node == -1) return null;
+        switch (code.get(node)) {
+            case ASSIGN: return new Assign(token(code.get(node + 1)),
+                    expr(code.get(node + 2)), local(node + 3));
+            case BINARY: return new Expr.Binary(expr(code.get(node + 1)),
+                    token(code.get(node + 2)), expr(code.get(node + 3)));
+            case CALL: {
+                Expr callee = expr(code.get(node + 1));
+                Token paren = token(code.get(node + 2));
+                List<Expr> arguments = new ArrayList<>(code.get(node + 3));
+                for (int i = 0; i < code.get(node + 3); i++) {
+                    arguments.add(expr(code.get(node + 4 + i)));
+                }
+                return new Expr.Call(callee, paren, arguments);
+            }
+            case GET: return new Expr.Get(expr(code.get(node + 1)), token(code.get(node + 2)));
+            case GROUPING: return new Expr.Grouping(expr(code.get(node + 1)));
+            case LAMBDA: {
+                List<Token> params = tokens(node + 1);
+                return new Expr.Lambda(params, new Body(node + 2 + params.size()));
+            }
+            case LITERAL: return switch (code.get(node + 1)) {
+                case NIL -> new Expr.Literal(null);
+                case FALSE -> new Expr.Literal(false);
+                case TRUE -> new Expr.Literal(true);
+                case NUMBER -> new Expr.Literal(numbers[code.get(node + 2)]);
+                default -> new Expr.Literal(strings[code.get(node + 2)]);
+            };
+            case LOGICAL: return new Expr.Logical(expr(code.get(node + 1)),
+                    token(code.get(node + 2)), expr(code.get(node + 3)));
+            case SET: return new Expr.Set(expr(code.get(node + 1)),
+                    token(code.get(node + 2)), expr(code.get(node + 3)));
+            case SUPER: return new Super(token(code.get(node + 1)),
+                    token(code.get(node + 2)), local(node + 3));
+            case TERNARY: return new Expr.Ternary(expr(code.get(node + 1)),
+                    expr(code.get(node + 2)), expr(code.get(node + 3)));
+            case THIS: return new This(token(code.get(node + 1)), local(node + 2));
+            case UNARY: return new Expr.Unary(token(code.get(node + 1)), expr(code.get(node + 2)));
+            case VARIABLE: return new Variable(token(code.get(node + 1)), local(node + 2));
+            default:
+                throw new IllegalStateException("Bad expression node " + code.get(node) + ".");
+        }
+    }
+
+    private Tuple<Integer, Integer> local(int at) {
+        int depth = code.get(at);
+        return depth == 0 ? null : new Tuple<>(depth - 1, code.get(at + 1));
+    }
+
+    private List<Stmt> stmts(int list) {
+        int count = code.get(list);
+        List<Stmt> statements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) statements.add(stmt(code.get(list + 1 + i)));
+        return statements;
+    }
+
+    private List<Token> tokens(int list) {
+        int count = code.get(list);
+        List<Token> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) result.add(token(code.get(list + 1 + i)));
+        return result;
+    }
+
+    private Token token(int index) {
+        return new Token(tokenTypes[tokenTypeIds.get(index)],
+                strings[tokenLexemes.get(index)], null, tokenLines.get(index));
+    }
+}
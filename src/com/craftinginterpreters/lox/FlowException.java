@@ -1,6 +1,8 @@
 package com.craftinginterpreters.lox;
 
 class FlowException extends RuntimeError {
+    private static final long serialVersionUID = 1L;
+
     TokenType type;
 
     FlowException(Token token) {
@@ -3,22 +3,54 @@ package com.craftinginterpreters.lox;
 import com.craftinginterpreters.utils.Tuple;
 
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.io.PrintStream;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     private Environment environment = new Environment();  // Top level is empty.
-    private final Map<String, Object> globals = new HashMap<>();
-    private final Map<Expr, Tuple<Integer, Integer>> locals = new HashMap<>();
-    private final ArrayList<String> files = new ArrayList<>();
+    // Globals of the module whose code is running. Fibers share them,
+    // hence the concurrent map.
+    private Map<String, Object> globals;
+    final LoadedFiles files;
+    final ProgramLoader loader;
+    final Map<String, LoxModule> modules;
+    // Module whose top level this interpreter runs, or null for the main one.
+    private final LoxModule module;
+    // File the main script was read from, or null when it has none.
+    private Path script;
+    // Resolution table of the script whose code is currently running.
+    private Map<Expr, Tuple<Integer, Integer>> locals = Map.of();
+    final ErrorReporter reporter;
+    private final PrintStream out;
+
+    // ConcurrentHashMap can't hold null, so nil globals are boxed.
+    static final Object NIL = new Object();
 
     Interpreter() {
-        globals.put("clock", new LoxCallable() {
+        this(System.out, new ErrorReporter(System.err));
+    }
+
+    Interpreter(PrintStream out, ErrorReporter reporter) {
+        this.out = out;
+        this.reporter = reporter;
+        globals = new ConcurrentHashMap<>(natives);
+        files = new LoadedFiles();
+        loader = new ProgramLoader();
+        modules = new ConcurrentHashMap<>();
+        module = null;
+    }
+
+    // Natives are stateless, so every context shares the same instances.
+    static final Map<String, LoxCallable> natives = new HashMap<>();
+
+    static {
+        natives.put("clock", new LoxCallable() {
             @Override
             public int arity() { return 0; }
 
@@ -31,7 +63,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             @Override
             public String toString() { return "<native fn>"; }
         });
-        globals.put("readLine", new LoxCallable() {
+        natives.put("readLine", new LoxCallable() {
             @Override
             public int arity() { return 0; }
 
@@ -45,7 +77,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             @Override
             public String toString() { return "<native fn>"; }
         });
-        globals.put("printw", new LoxCallable() {
+        natives.put("printw", new LoxCallable() {
             @Override
             public int arity() { return 1; }
 
@@ -59,7 +91,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             @Override
             public String toString() { return "<native fn>"; }
         });
-        globals.put("loadFile", new LoxCallable() {
+        natives.put("loadFile", new LoxCallable() {
             @Override
             public int arity() { return 1; }
 
@@ -67,9 +99,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             public Object call(Interpreter interpreter,
                                List<Object> arguments) {
                 try {
-                    byte[] bytes = Files.readAllBytes(Paths.get((String) arguments.get(0)));
-                    Lox.run(new String(bytes, Charset.defaultCharset()), false);
-                    files.add((String) arguments.get(0));
+                    interpreter.files.load(
+                            Paths.get((String) arguments.get(0)), interpreter);
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
@@ -79,7 +110,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             @Override
             public String toString() { return "<native fn>"; }
         });
-        globals.put("reload", new LoxCallable() {
+        natives.put("reload", new LoxCallable() {
             @Override
             public int arity() { return 0; }
 
@@ -87,10 +118,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             public Object call(Interpreter interpreter,
                                List<Object> arguments) {
                 try {
-                    for (String file : files) {
-                        byte[] bytes = Files.readAllBytes(Paths.get(file));
-                        Lox.run(new String(bytes, Charset.defaultCharset()), false);
-                    }
+                    interpreter.files.reload(interpreter);
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
@@ -100,15 +128,193 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             @Override
             public String toString() { return "<native fn>"; }
         });
+        natives.put("import", new LoxCallable() {
+            @Override
+            public int arity() { return 1; }
+
+            @Override
+            public Object call(Interpreter interpreter,
+                               List<Object> arguments) {
+                if (!(arguments.get(0) instanceof String name)) {
+                    throw new NativeError(
+                            "Module path must be a string.");
+                }
+                return interpreter.importModule(name);
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+        natives.put("spawn", new LoxCallable() {
+            @Override
+            public int arity() { return 1; }
+
+            @Override
+            public Object call(Interpreter interpreter,
+                               List<Object> arguments) {
+                if (!(arguments.get(0) instanceof LoxCallable function) ||
+                        function.arity() != 0) {
+                    throw new NativeError(
+                            "Can only spawn functions that take no arguments.");
+                }
+                return new LoxFiber(interpreter.fork(), function);
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+        natives.put("join", new LoxCallable() {
+            @Override
+            public int arity() { return 1; }
+
+            @Override
+            public Object call(Interpreter interpreter,
+                               List<Object> arguments) {
+                if (!(arguments.get(0) instanceof LoxFiber fiber)) {
+                    throw new NativeError("Can only join fibers.");
+                }
+                try {
+                    return fiber.join();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+        natives.put("channel", new LoxCallable() {
+            @Override
+            public int arity() { return 1; }
+
+            @Override
+            public Object call(Interpreter interpreter,
+                               List<Object> arguments) {
+                if (!(arguments.get(0) instanceof Double capacity) ||
+                        capacity < 1 || capacity != Math.floor(capacity)) {
+                    throw new NativeError(
+                            "Channel capacity must be a positive integer.");
+                }
+                return new LoxChannel(capacity.intValue());
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+        natives.put("send", new LoxCallable() {
+            @Override
+            public int arity() { return 2; }
+
+            @Override
+            public Object call(Interpreter interpreter,
+                               List<Object> arguments) {
+                if (!(arguments.get(0) instanceof LoxChannel channel)) {
+                    throw new NativeError(
+                            "Can only send to channels.");
+                }
+                try {
+                    channel.send(arguments.get(1));
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return null;
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+        natives.put("receive", new LoxCallable() {
+            @Override
+            public int arity() { return 1; }
+
+            @Override
+            public Object call(Interpreter interpreter,
+                               List<Object> arguments) {
+                if (!(arguments.get(0) instanceof LoxChannel channel)) {
+                    throw new NativeError(
+                            "Can only receive from channels.");
+                }
+                try {
+                    return channel.receive();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+        natives.put("stats", new LoxCallable() {
+            @Override
+            public int arity() { return 0; }
+
+            @Override
+            public Object call(Interpreter interpreter,
+                               List<Object> arguments) {
+                return Metrics.enabled ? Metrics.toLox() : null;
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+    }
+
+    // A fiber gets its own environment chain but shares the program state.
+    // A module also gets its own globals, which become its exports.
+    private Interpreter(Interpreter parent, LoxModule module) {
+        globals = module == null ?
+                parent.globals : new ConcurrentHashMap<>(natives);
+        files = parent.files;
+        loader = parent.loader;
+        modules = parent.modules;
+        this.module = module == null ? parent.module : module;
+        script = parent.script;
+        locals = parent.locals;
+        reporter = parent.reporter;
+        out = parent.out;
+    }
+
+    Interpreter fork() {
+        return new Interpreter(this, null);
     }
 
-    void interpret(List<Stmt> statements) {
+    Interpreter forModule(LoxModule module) {
+        return new Interpreter(this, module);
+    }
+
+    void setScript(Path path) {
+        script = path;
+    }
+
+    // Paths are relative to the importing module or script, and each
+    // file is loaded at most once per interpreter.
+    LoxModule importModule(String name) {
+        Path path = LoxModule.resolve(module == null ? script : module.path, name);
+        LoxModule imported = modules.computeIfAbsent(
+                path.toAbsolutePath().normalize().toString(),
+                k -> new LoxModule(Paths.get(k)));
+        if (module != null) module.dependencies.addIfAbsent(imported);
+        return imported;
+    }
+
+    void interpret(LoxScript script) {
         try {
-            for (Stmt statement : statements) {
+            executeScript(script);
+        } catch (RuntimeError error) {
+            reporter.runtimeError(error);
+        }
+    }
+
+    void executeScript(LoxScript script) {
+        Map<Expr, Tuple<Integer, Integer>> previous = this.locals;
+        try {
+            this.locals = script.locals;
+
+            for (Stmt statement : script.statements) {
                 execute(statement);
             }
-        } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+        } finally {
+            this.locals = previous;
         }
     }
     
@@ -120,8 +326,19 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         stmt.accept(this);
     }
 
-    void resolve(Expr expr, int depth, int index) {
-        locals.put(expr, new Tuple<>(depth, index));
+    void executeBlock(List<Stmt> statements, Environment environment,
+                      Map<Expr, Tuple<Integer, Integer>> locals,
+                      Map<String, Object> globals) {
+        Map<Expr, Tuple<Integer, Integer>> previousLocals = this.locals;
+        Map<String, Object> previousGlobals = this.globals;
+        try {
+            this.locals = locals;
+            this.globals = globals;
+            executeBlock(statements, environment);
+        } finally {
+            this.locals = previousLocals;
+            this.globals = previousGlobals;
+        }
     }
 
     void executeBlock(List<Stmt> statements, Environment environment) {
@@ -154,7 +371,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         }
 
-        define(stmt.name.lexeme, null);
+        define(stmt.name.lexeme(), null);
 
         if (superclass != null) {
             environment = new Environment(environment);
@@ -171,16 +388,16 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             environment.assign(
                     klass, 0, environment.getSize()-1);
         } else {
-            globals.put(stmt.name.lexeme, klass);
+            putGlobal(stmt.name.lexeme(), klass);
         }
         return null;
     }
     private LoxClass getLoxClass(Stmt.Class stmt, LoxClass superclass) {
         Map<String, Tuple<LoxFunction, Boolean>> methods = new HashMap<>();
         for (Map.Entry<Stmt.Function, Boolean> entry : stmt.methods.entrySet()) {
-            LoxFunction function = new LoxFunction(environment, entry.getKey(),
-                    entry.getKey().name.lexeme.equals("init"));
-            methods.put(entry.getKey().name.lexeme, new Tuple<>(function, entry.getValue()));
+            LoxFunction function = new LoxFunction(environment, locals, globals, entry.getKey(),
+                    entry.getKey().name.lexeme().equals("init"));
+            methods.put(entry.getKey().name.lexeme(), new Tuple<>(function, entry.getValue()));
         }
 
         List<Trait> traits = new ArrayList<>();
@@ -190,12 +407,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
         Map<String, LoxFunction> staticMethods = new HashMap<>();
         for (Stmt.Function method : stmt.staticMethods) {
-            LoxFunction function = new LoxFunction(environment, method,
-                    method.name.lexeme.equals("init"));
-            staticMethods.put(method.name.lexeme, function);
+            LoxFunction function = new LoxFunction(environment, locals, globals, method,
+                    method.name.lexeme().equals("init"));
+            staticMethods.put(method.name.lexeme(), function);
         }
 
-        return new LoxClass(stmt.name.lexeme, superclass, traits, methods, staticMethods);
+        return new LoxClass(stmt.name.lexeme(), superclass, traits, methods, staticMethods);
     }
 
     @Override
@@ -206,13 +423,14 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFlowStmt(Stmt.Flow stmt) {
+        if (Metrics.enabled) Metrics.flowThrows.increment();
         throw new FlowException(stmt.type);
     }
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(environment, stmt, false);
-        define(stmt.name.lexeme, function);
+        LoxFunction function = new LoxFunction(environment, locals, globals, stmt, false);
+        define(stmt.name.lexeme(), function);
         return null;
     }
 
@@ -229,7 +447,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        out.println(stringify(value));
         return null;
     }
 
@@ -238,6 +456,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object value = null;
         if (stmt.value != null) value = evaluate(stmt.value);
 
+        if (Metrics.enabled) Metrics.returnThrows.increment();
         throw new Return(value);
     }
 
@@ -246,11 +465,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Map<String, LoxFunction> defaultImpls = new HashMap<>();
 
         for (Stmt.Function defaultImpl : stmt.defaultImpls) {
-            defaultImpls.put(defaultImpl.name.lexeme, new LoxFunction(
-                    environment, defaultImpl, false));
+            defaultImpls.put(defaultImpl.name.lexeme(), new LoxFunction(
+                    environment, locals, globals, defaultImpl, false));
         }
 
-        define(stmt.name.lexeme, new Trait(defaultImpls));
+        define(stmt.name.lexeme(), new Trait(defaultImpls));
         return null;
     }
 
@@ -261,7 +480,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             value = evaluate(stmt.initializer);
         }
 
-        define(stmt.name.lexeme, value);
+        define(stmt.name.lexeme(), value);
         return null;
     }
 
@@ -286,12 +505,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
 
-        if (locals.containsKey(expr)) {
-            Integer distance = locals.get(expr).fst;
-            Integer index = locals.get(expr).snd;
-            environment.assign(value, distance, index);
+        Tuple<Integer, Integer> local = locals.get(expr);
+        if (local != null) {
+            environment.assign(value, local.fst, local.snd);
         } else {
-            globals.put(expr.name.lexeme, value);
+            putGlobal(expr.name.lexeme(), value);
         }
 
         return value;
@@ -369,7 +587,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     arguments.size() + ".");
         }
 
-        return function.call(this, arguments);
+        if (Profiler.enabled) Profiler.at(expr.paren.line());
+        try {
+            return function.call(this, arguments);
+        } catch (NativeError e) {
+            throw new RuntimeError(expr.paren, e.getMessage());
+        }
     }
 
     @Override
@@ -377,6 +600,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object object = evaluate(expr.object);
         if (object instanceof LoxInstance) {
             return ((LoxInstance) object).get(expr.name, this);
+        } else if (object instanceof LoxModule) {
+            return ((LoxModule) object).get(expr.name, this);
         }
 
         throw new RuntimeError(expr.name,
@@ -390,7 +615,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitLambdaExpr(Expr.Lambda expr) {
-        return new LoxFunction(environment, expr, false);
+        return new LoxFunction(environment, locals, globals, expr, false);
     }
 
     @Override
@@ -434,11 +659,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         LoxInstance object = (LoxInstance)environment.get(
                 distance-1, 0);
         LoxFunction method = superclass.findMethod(
-                expr.method.lexeme).fst;
+                expr.method.lexeme()).fst;
 
         if (method == null) {
             throw new RuntimeError(expr.method,
-                    "Undefined property '" + expr.method.lexeme + "'.");
+                    "Undefined property '" + expr.method.lexeme() + "'.");
         }
         return method.bind(object);
     }
@@ -479,12 +704,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     private Object lookUpVariable(Token name, Expr expr) {
-        if (locals.containsKey(expr)) {
-            Integer distance = locals.get(expr).fst;
-            Integer index = locals.get(expr).snd;
-            return environment.get(distance, index);
+        Tuple<Integer, Integer> local = locals.get(expr);
+        if (local != null) {
+            return environment.get(local.fst, local.snd);
         } else {
-            return globals.get(name.lexeme);
+            if (Metrics.enabled) Metrics.globalLookups.increment();
+            return getGlobal(name.lexeme());
         }
     }
 
@@ -516,10 +741,43 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if (environment.enclosing != null) {
             environment.define(name, value);
         } else {
-            globals.put(name, value);
+            putGlobal(name, value);
+        }
+    }
+
+    Map<String, Object> globals() {
+        return globals;
+    }
+
+    // Everything a script has defined, for Snapshot.
+    Map<String, Object> globalValues() {
+        Map<String, Object> values = new HashMap<>();
+        for (Map.Entry<String, Object> entry : globals.entrySet()) {
+            if (natives.get(entry.getKey()) == entry.getValue()) continue;
+            values.put(entry.getKey(), entry.getValue() == NIL ? null : entry.getValue());
+        }
+        return values;
+    }
+
+    void defineGlobals(Map<String, Object> values) {
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            putGlobal(entry.getKey(), entry.getValue());
         }
     }
 
+    boolean hasGlobal(String name) {
+        return globals.containsKey(name);
+    }
+
+    Object getGlobal(String name) {
+        Object value = globals.get(name);
+        return value == NIL ? null : value;
+    }
+
+    private void putGlobal(String name, Object value) {
+        globals.put(name, value == null ? NIL : value);
+    }
+
     String stringify(Object object) {
         if (object == null) return "nil";
 
@@ -0,0 +1,99 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// The files pulled in by loadFile(), in load order, with enough
+// information for reload() to skip the ones that haven't changed.
+class LoadedFiles {
+    record Stamp(long modified, long size, byte[] hash) implements Serializable {}
+
+    private final Map<String, Stamp> files = new LinkedHashMap<>();
+
+    void load(Path path, Interpreter interpreter) throws IOException {
+        load(path, interpreter, false);
+    }
+
+    private void load(Path path, Interpreter interpreter, boolean reload)
+            throws IOException {
+        LoxEvents.FileRun event =
+                LoxEvents.enabled ? LoxEvents.beginFileRun() : null;
+        Stamp stamp = run(path, interpreter);
+        if (event != null) LoxEvents.end(event, key(path), reload);
+        synchronized (files) {
+            files.put(key(path), stamp);
+        }
+    }
+
+    // Re-runs only the files whose contents changed since they were last
+    // run. The modification time and size are checked first so that
+    // untouched files aren't even read.
+    void reload(Interpreter interpreter) throws IOException {
+        for (Map.Entry<String, Stamp> entry : stamps().entrySet()) {
+            Path path = Paths.get(entry.getKey());
+            Stamp stamp = entry.getValue();
+            BasicFileAttributes attributes =
+                    Files.readAttributes(path, BasicFileAttributes.class);
+            if (attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS) == stamp.modified() &&
+                    attributes.size() == stamp.size()) {
+                continue;
+            }
+
+            Stamp current = stamp(path, attributes, Utf8Source.map(path));
+            if (Arrays.equals(current.hash(), stamp.hash())) {
+                synchronized (files) {
+                    files.put(entry.getKey(), current);
+                }
+                continue;
+            }
+
+            load(path, interpreter, true);
+        }
+    }
+
+    Map<String, Stamp> stamps() {
+        synchronized (files) {
+            return new LinkedHashMap<>(files);
+        }
+    }
+
+    void restore(Map<String, Stamp> stamps) {
+        synchronized (files) {
+            files.putAll(stamps);
+        }
+    }
+
+    private Stamp run(Path path, Interpreter interpreter) throws IOException {
+        // Read the attributes first: if the file changes while it is being
+        // read, the next reload sees a newer timestamp.
+        BasicFileAttributes attributes =
+                Files.readAttributes(path, BasicFileAttributes.class);
+        Utf8Source source = Utf8Source.map(path);
+        Stamp stamp = stamp(path, attributes, source);
+
+        LoxScript script = interpreter.loader.load(path, source, stamp.hash(),
+                interpreter.reporter);
+        if (script != null) interpreter.interpret(script);
+        return stamp;
+    }
+
+    private static Stamp stamp(Path path, BasicFileAttributes attributes,
+                               Utf8Source source) {
+        return new Stamp(attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                attributes.size(), ScriptCache.hash(source));
+    }
+
+    private static String key(Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+}
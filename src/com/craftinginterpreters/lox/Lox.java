@@ -1,36 +1,90 @@
 package com.craftinginterpreters.lox;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
+import java.io.NotSerializableException;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Lox {
     private static final Interpreter interpreter = new Interpreter();
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
     
     public static void main(String[] args) throws IOException, InterruptedException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
+        String snapshotTo = null;
+        String restoreFrom = null;
+        String stats = null;
+        List<String> scripts = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--snapshot") && i + 1 < args.length) {
+                snapshotTo = args[++i];
+            } else if (args[i].equals("--restore") && i + 1 < args.length) {
+                restoreFrom = args[++i];
+            } else if (args[i].equals("--stats") || args[i].equals("--stats=json")) {
+                stats = args[i];
+            } else {
+                scripts.add(args[i]);
+            }
+        }
+
+        if (scripts.size() > 1 ||
+                ((snapshotTo != null || stats != null) && scripts.isEmpty())) {
+            System.out.println("Usage: jlox [--restore snapshot] " +
+                    "[--snapshot snapshot] [--stats[=json]] [script]");
             System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        }
+
+        if (restoreFrom != null) {
+            try (InputStream in = new BufferedInputStream(
+                    Files.newInputStream(Paths.get(restoreFrom)))) {
+                Snapshot.read(interpreter, in);
+            } catch (IOException e) {
+                System.err.println("Can't restore " + restoreFrom + ": " +
+                        e.getMessage());
+                System.exit(66);
+            }
+        }
+
+        if (stats != null) {
+            // The report goes to stderr, out of the way of the script's
+            // own output.
+            PipelineStats.run(Paths.get(scripts.get(0)), interpreter,
+                    stats.equals("--stats=json"), System.err);
+            if (interpreter.reporter.hadError) System.exit(65);
+            if (interpreter.reporter.hadRuntimeError) System.exit(70);
+        } else if (scripts.size() == 1) {
+            runFile(scripts.get(0));
         } else {
             runPrompt();
         }
+
+        if (snapshotTo != null) {
+            try (OutputStream out = new BufferedOutputStream(
+                    Files.newOutputStream(Paths.get(snapshotTo)))) {
+                Snapshot.write(interpreter, out);
+            } catch (NotSerializableException e) {
+                System.err.println("Can't snapshot a value of type " +
+                        e.getMessage() + ".");
+                System.exit(70);
+            }
+        }
     }
 
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()), false);
+        runFile(Paths.get(path), interpreter);
 
         // Indicate an error in the exit code.
-        if (hadError) System.exit(65);
-        if (hadRuntimeError) System.exit(70);
+        if (interpreter.reporter.hadError) System.exit(65);
+        if (interpreter.reporter.hadRuntimeError) System.exit(70);
     }
 
     private static void runPrompt() throws IOException, InterruptedException {
@@ -42,95 +96,56 @@ public class Lox {
             String line = reader.readLine();
             if (line == null) break;
             run(line, true);
-            hadError = false;
+            interpreter.reporter.hadError = false;
             Thread.sleep(50);
         }
     }
 
     public static void run(String source, boolean fromRepl) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser;
-
-        if (fromRepl) {
-            int sc_counter = 0;
-            for (int i = 0; i < source.length(); i++) {
-                if (source.charAt(i) == ';') sc_counter++;
-            }
-            if (sc_counter == 0) {
-                Token eof = tokens.remove(tokens.size()-1);
-                tokens.add(new Token(TokenType.SEMICOLON, ";", null, 1));
-                tokens.add(eof);
-                parser = new Parser(tokens);
-                Stmt expression = parser.parse().get(0);
-                if (expression instanceof Stmt.Expression && !hadError) {
-                    try {
-                        String value = interpreter.stringify(
-                            ((Stmt.Expression) expression).expression.accept(
-                                interpreter));
-                        String AstRepresentation =
-                            new AstPrinter(interpreter).print(
-                                ((Stmt.Expression) expression).expression);
-                        System.out.println(value + '\n' + AstRepresentation);
-                    } catch (RuntimeError e) {
-                        runtimeError(e);
-                    }
-                    return;
-                } else {
-                    eof = tokens.remove(tokens.size()-1);
-                    tokens.remove(tokens.size()-1);
-                    tokens.add(eof);
+        ErrorReporter reporter = interpreter.reporter;
+        if (fromRepl && source.indexOf(';') < 0) {
+            Parser parser = new Parser(TokenStream.withSemicolonAtEnd(
+                    new Scanner(source, reporter)), reporter);
+            Stmt expression = parser.parse().get(0);
+            if (expression instanceof Stmt.Expression &&
+                    !reporter.hadError) {
+                try {
+                    String value = interpreter.stringify(
+                        ((Stmt.Expression) expression).expression.accept(
+                            interpreter));
+                    String AstRepresentation =
+                        new AstPrinter(interpreter).print(
+                            ((Stmt.Expression) expression).expression);
+                    System.out.println(value + '\n' + AstRepresentation);
+                } catch (RuntimeError e) {
+                    reporter.runtimeError(e);
                 }
+                return;
             }
-        }
-
-        parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-
-        // Stop if there was a syntax error.
-        if (hadError) return;
-
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
-
-        // Stop if there was a resolution error.
-        if (hadError) return;
-
-        interpreter.interpret(statements);
-    }
 
-    static void error(int line, String message) {
-        hadError = true;
-        report(line, "", message, 0);
-    }
-
-	static void error(Token token, String message) {
-        hadError = true;
-		if (token.type == TokenType.EOF) {
-			report(token.line, " at end", message, 0);
-		} else {
-			report(token.line, " at '" + token.lexeme + "'", message, 0);
-		}
-	}
-
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() +
-                           "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
-    }
+            // Not a bare expression, so it is parsed again as written.
+            // The scanner's errors, if any, were reported the first time.
+            ErrorReporter quiet = new ErrorReporter(
+                    new PrintStream(OutputStream.nullOutputStream()));
+            LoxScript script = LoxScript.compile(
+                    new Scanner(source, quiet), reporter);
+            if (script != null) interpreter.interpret(script);
+            return;
+        }
 
-    private static void report(int line, String where, String message, int type) {
-        String typeStr = switch (type) {
-            case 0 -> "Error";
-            case 1 -> "Warning";
-            default -> "";
-        };
-        System.err.println(
-                "[line " + line + "] " + typeStr + where + ": " + message);
-        System.err.flush();
+        LoxScript script = LoxScript.compile(source, reporter);
+        if (script != null) interpreter.interpret(script);
     }
 
-    static void warning(int line, String message) {
-        report(line, "", message, 1);
+    static void runFile(Path path, Interpreter interpreter) throws IOException {
+        // Start compiling the files this one depends on in the background.
+        interpreter.setScript(path);
+        interpreter.loader.prefetch(path, path);
+        LoxScript script = interpreter.loader.load(path, interpreter.reporter);
+        try {
+            if (script != null) interpreter.interpret(script);
+        } finally {
+            interpreter.loader.clear();
+        }
     }
 }
@@ -0,0 +1,29 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+class LoxChannel {
+    // Queues can't hold null, so nil is boxed on the way in.
+    private static final Object NIL = new Object();
+
+    private final BlockingQueue<Object> queue;
+
+    LoxChannel(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    void send(Object value) throws InterruptedException {
+        queue.put(value == null ? NIL : value);
+    }
+
+    Object receive() throws InterruptedException {
+        Object value = queue.take();
+        return value == NIL ? null : value;
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
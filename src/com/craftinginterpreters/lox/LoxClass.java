@@ -5,7 +5,10 @@ import com.craftinginterpreters.utils.Tuple;
 import java.util.List;
 import java.util.Map;
 
+@SuppressWarnings("serial")
 class LoxClass extends LoxInstance implements LoxCallable {
+    private static final long serialVersionUID = 1L;
+
     final String name;
     final LoxClass superclass;
     final List<Trait> traits;
@@ -22,6 +25,7 @@ class LoxClass extends LoxInstance implements LoxCallable {
     }
 
     Tuple<LoxFunction, Boolean> findMethod(String name) {
+        if (Metrics.enabled) Metrics.methodLookups.increment();
         if (methods.containsKey(name)) {
             return methods.get(name);
         }
@@ -55,13 +59,17 @@ class LoxClass extends LoxInstance implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        LoxEvents.Instantiation event =
+                LoxEvents.enabled ? LoxEvents.beginInstantiation() : null;
         LoxInstance instance = new LoxInstance(this);
+        if (Metrics.enabled) Metrics.instance(name);
         LoxFunction initializer = findMethod("init") == null ?
                 null : findMethod("init").fst;
         if (initializer != null) {
             initializer.bind(instance).call(interpreter, arguments);
         }
 
+        if (event != null) LoxEvents.end(event, name);
         return instance;
     }
 }
\ No newline at end of file
@@ -0,0 +1,32 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// A single execution context. Not thread-safe: use one per thread, and
+// spawn() for concurrency within a context.
+public final class LoxContext {
+    private final Interpreter interpreter;
+
+    LoxContext(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    public void execute(LoxScript script) {
+        try {
+            interpreter.executeScript(script);
+        } catch (RuntimeError error) {
+            throw new LoxException(
+                    error.getMessage() + "\n[line " + error.token.line() + "]");
+        }
+    }
+
+    // Saves this context's globals so LoxEngine.restore() can recreate it.
+    public void snapshot(OutputStream out) throws IOException {
+        Snapshot.write(interpreter, out);
+    }
+
+    public Object get(String name) {
+        return interpreter.getGlobal(name);
+    }
+}
@@ -0,0 +1,270 @@
+package com.craftinginterpreters.lox;
+
+import com.craftinginterpreters.utils.Tuple;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A source kept open in an editor. The parse and resolution of every
+// top-level declaration are kept, so an edit only re-lexes and reparses
+// from the declaration it touches until the new parse reaches an old
+// declaration boundary again, and only the new declarations are
+// resolved. The AST, resolution and diagnostics come out the same as
+// compiling the whole text.
+public final class LoxDocument {
+    // One top-level declaration, together with the text after it up to
+    // the next one. Its diagnostics keep the line numbers they were made
+    // with; shift says how far the declaration has moved since.
+    private static final class Segment {
+        int start;
+        int line;
+        final Token.LineShift shift = new Token.LineShift();
+        Stmt statement;  // Null after a syntax error.
+        List<Tuple<Integer, String>> syntaxErrors = new ArrayList<>();
+
+        boolean resolved = false;
+        Map<Expr, Tuple<Integer, Integer>> locals = Map.of();
+        List<Tuple<Integer, String>> diagnostics = List.of();
+        boolean hasResolveErrors = false;
+        Map<String, Map<String, Integer>> declaredTraits = Map.of();
+        boolean usesTraits = false;
+        // Handed out by script(). Its tokens' lines are then fixed, so it
+        // is parsed again rather than moved to other lines.
+        boolean published = false;
+    }
+
+    private String text;
+    private final List<Segment> segments = new ArrayList<>();
+    // Errors in a text without a single declaration.
+    private List<Tuple<Integer, String>> orphanErrors = List.of();
+    private boolean traitsChanged = false;
+
+    LoxDocument(String text) {
+        this.text = text;
+        reparse(0, 0, 0);
+        resolve();
+    }
+
+    public String text() {
+        return text;
+    }
+
+    // Replaces the length characters at offset with replacement.
+    public void edit(int offset, int length, String replacement) {
+        if (offset < 0 || length < 0 || offset + length > text.length()) {
+            throw new IndexOutOfBoundsException(
+                    "Edit " + offset + "+" + length + " is outside the text.");
+        }
+        text = text.substring(0, offset) + replacement +
+                text.substring(offset + length);
+        reparse(offset, offset + length, replacement.length() - length);
+        resolve();
+    }
+
+    // Errors and warnings, formatted like the command line reports them.
+    public List<String> diagnostics() {
+        List<String> reports = new ArrayList<>();
+        report(reports, orphanErrors, 0);
+        for (Segment segment : segments) {
+            report(reports, segment.syntaxErrors, segment.shift.lines);
+        }
+        if (hasSyntaxErrors()) return reports;
+
+        for (Segment segment : segments) {
+            report(reports, segment.diagnostics, segment.shift.lines);
+        }
+        return reports;
+    }
+
+    // The compiled text, or null if it has errors.
+    public LoxScript script() {
+        if (hasSyntaxErrors()) return null;
+
+        List<Stmt> statements = new ArrayList<>(segments.size());
+        Map<Expr, Tuple<Integer, Integer>> locals = new HashMap<>();
+        for (Segment segment : segments) {
+            if (segment.hasResolveErrors) return null;
+            statements.add(segment.statement);
+            locals.putAll(segment.locals);
+        }
+        for (Segment segment : segments) segment.published = true;
+        return new LoxScript(List.copyOf(statements), locals);
+    }
+
+    // Reparses after [from, to) of the old text was replaced by a text
+    // delta characters longer.
+    private void reparse(int from, int to, int delta) {
+        // The declaration holding the character before the edit may have
+        // been run into. The one before it must be redone too: the Parser
+        // decides where a declaration ends by looking at the token after
+        // it, and error recovery in particular skips ahead until that
+        // token is a keyword or follows a ';'.
+        int first = Math.max(segmentAt(Math.max(from - 1, 0)) - 1, 0);
+        int start = segments.isEmpty() ? 0 : segments.get(first).start;
+        int line = segments.isEmpty() ? 1 : segments.get(first).line;
+
+        // Declarations wholly after the edit can be reused once the new
+        // parse reaches the start of one: the Scanner and Parser carry no
+        // other state from one declaration to the next.
+        int next = first + 1;
+        while (next < segments.size() && segments.get(next).start < to) next++;
+        // Reusing a declaration at or before this one on other lines
+        // would renumber the lines of a script already handed out.
+        int lastPublished = -1;
+        for (int i = next; i < segments.size(); i++) {
+            if (segments.get(i).published) lastPublished = i;
+        }
+
+        ErrorReporter reporter = quietReporter();
+        Parser parser = new Parser(
+                new Scanner(text, reporter, start, Integer.MAX_VALUE, line),
+                reporter);
+        List<Segment> parsed = new ArrayList<>();
+        int reported = 0;
+        int resume = -1;
+        while (!parser.atEnd()) {
+            Segment segment = new Segment();
+            segment.start = start;
+            segment.line = line;
+            parser.shiftLines(segment.shift);
+            segment.statement = parser.declaration();
+            // Includes errors from scanning ahead to the next declaration.
+            segment.syntaxErrors.addAll(reporter.diagnostics.subList(
+                    reported, reporter.diagnostics.size()));
+            reported = reporter.diagnostics.size();
+            parsed.add(segment);
+
+            int offset = parser.offset();
+            line += countNewlines(start, offset);
+            start = offset;
+            while (next < segments.size() &&
+                    segments.get(next).start + delta < offset) {
+                next++;
+            }
+            if (next < segments.size() &&
+                    segments.get(next).start + delta == offset &&
+                    (next > lastPublished || segments.get(next).line == line)) {
+                resume = next;
+                break;
+            }
+        }
+        List<Tuple<Integer, String>> trailing = reporter.diagnostics.subList(
+                reported, reporter.diagnostics.size());
+
+        int lineDelta = resume == -1 ? 0 : line - segments.get(resume).line;
+        List<Segment> replaced = segments.subList(
+                first, resume == -1 ? segments.size() : resume);
+        for (Segment segment : replaced) {
+            if (!segment.resolved || !segment.declaredTraits.isEmpty()) {
+                traitsChanged = true;
+            }
+        }
+        replaced.clear();
+        segments.addAll(first, parsed);
+
+        if (resume != -1) {
+            for (int i = first + parsed.size(); i < segments.size(); i++) {
+                Segment segment = segments.get(i);
+                segment.start += delta;
+                segment.line += lineDelta;
+                segment.shift.lines += lineDelta;
+            }
+        }
+
+        // Errors past the last declaration, when the edit left none after
+        // it, belong with whatever declaration comes before.
+        if (parsed.isEmpty()) {
+            if (first == 0) {
+                orphanErrors = List.copyOf(trailing);
+            } else {
+                Segment before = segments.get(first - 1);
+                for (Tuple<Integer, String> error : trailing) {
+                    before.syntaxErrors.add(new Tuple<>(
+                            error.fst - before.shift.lines, error.snd));
+                }
+            }
+        } else if (first == 0) {
+            orphanErrors = List.of();
+        }
+    }
+
+    // Resolves the new declarations, and the ones that use traits if any
+    // declaration of a trait might have changed. Nothing is resolved
+    // while there are syntax errors, as when compiling.
+    private void resolve() {
+        if (hasSyntaxErrors()) return;
+
+        Map<String, Map<String, Integer>> traits = new HashMap<>();
+        boolean traitsDirty = traitsChanged;
+        for (Segment segment : segments) {
+            if (!segment.resolved || (traitsDirty && segment.usesTraits)) {
+                ErrorReporter reporter = quietReporter();
+                Resolver resolver = new Resolver(reporter, traits);
+                resolver.resolve(List.of(segment.statement));
+
+                List<Tuple<Integer, String>> diagnostics = new ArrayList<>();
+                for (Tuple<Integer, String> diagnostic : reporter.diagnostics) {
+                    diagnostics.add(new Tuple<>(
+                            diagnostic.fst - segment.shift.lines, diagnostic.snd));
+                }
+                if (!resolver.declaredTraits.isEmpty()) traitsDirty = true;
+
+                segment.locals = resolver.locals();
+                segment.diagnostics = diagnostics;
+                segment.hasResolveErrors = !reporter.errors.isEmpty();
+                segment.declaredTraits = resolver.declaredTraits;
+                segment.usesTraits = resolver.usesTraits;
+                segment.resolved = true;
+            }
+            traits.putAll(segment.declaredTraits);
+        }
+        traitsChanged = false;
+    }
+
+    private boolean hasSyntaxErrors() {
+        if (!orphanErrors.isEmpty()) return true;
+        for (Segment segment : segments) {
+            if (!segment.syntaxErrors.isEmpty()) return true;
+        }
+        return false;
+    }
+
+    // The last segment starting at or before offset.
+    private int segmentAt(int offset) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (segments.get(middle).start <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private int countNewlines(int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == '\n') count++;
+        }
+        return count;
+    }
+
+    private static void report(List<String> reports,
+                               List<Tuple<Integer, String>> diagnostics,
+                               int shift) {
+        for (Tuple<Integer, String> diagnostic : diagnostics) {
+            reports.add("[line " + (diagnostic.fst + shift) + "] " + diagnostic.snd);
+        }
+    }
+
+    private static ErrorReporter quietReporter() {
+        return new ErrorReporter(new PrintStream(OutputStream.nullOutputStream()));
+    }
+}
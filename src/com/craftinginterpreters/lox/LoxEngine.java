@@ -0,0 +1,103 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Entry point for embedding. Scripts compiled by an engine are immutable
+// and can be shared; each context owns its globals, environments and
+// error state, so contexts may run in parallel on different threads.
+public final class LoxEngine {
+    private final PrintStream out;
+    private final PrintStream err;
+    // Prepared scripts, keyed by the SHA-256 of their source.
+    private final Map<String, LoxScript> prepared = new ConcurrentHashMap<>();
+
+    public LoxEngine() {
+        this(System.out, System.err);
+    }
+
+    public LoxEngine(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    public LoxScript compile(String source) {
+        ErrorReporter reporter = new ErrorReporter(err);
+        LoxScript script = LoxScript.compile(source, reporter);
+        if (script == null) {
+            throw new LoxException(String.join("\n", reporter.errors));
+        }
+        return script;
+    }
+
+    // Opens a text for editing; see LoxDocument.
+    public LoxDocument open(String text) {
+        return new LoxDocument(text);
+    }
+
+    // Scans the source as it is read, without holding all of it in memory.
+    public LoxScript compile(Reader source) throws IOException {
+        ErrorReporter reporter = new ErrorReporter(err);
+        LoxScript script;
+        try {
+            script = LoxScript.compile(source, reporter);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (script == null) {
+            throw new LoxException(String.join("\n", reporter.errors));
+        }
+        return script;
+    }
+
+    // Like compile(), but the scan/parse/resolve work is done only once
+    // per distinct source; later calls return the cached script.
+    public LoxScript prepare(String source) {
+        return prepared.computeIfAbsent(hash(source), k -> compile(source));
+    }
+
+    // Runs a script in a fresh context, so no state leaks between runs.
+    public LoxContext execute(LoxScript script) {
+        LoxContext context = newContext();
+        context.execute(script);
+        return context;
+    }
+
+    public LoxContext newContext() {
+        return new LoxContext(new Interpreter(out, new ErrorReporter(err)));
+    }
+
+    // A context whose imports are looked up next to the given file
+    // rather than in the working directory.
+    public LoxContext newContext(Path script) {
+        Interpreter interpreter = new Interpreter(out, new ErrorReporter(err));
+        interpreter.setScript(script);
+        return new LoxContext(interpreter);
+    }
+
+    public LoxContext restore(InputStream in) throws IOException {
+        Interpreter interpreter = new Interpreter(out, new ErrorReporter(err));
+        Snapshot.read(interpreter, in);
+        return new LoxContext(interpreter);
+    }
+
+    private static String hash(String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(
+                    digest.digest(source.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.craftinginterpreters.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+// Java Flight Recorder events for Lox activity, so that it shows up in
+// a recording next to GC and I/O. Loading the event classes pulls in
+// much of jdk.jfr and doubles startup time, so they are only touched
+// with -Dlox.jfr=true; otherwise every hook is behind a constant false.
+// Thresholds can be changed in the recording's settings, e.g.
+// lox.FunctionCall#threshold=0 ms. The Java stack trace would only show
+// the interpreter's visitors, so none is recorded.
+final class LoxEvents {
+    static final boolean enabled = Boolean.getBoolean("lox.jfr");
+
+    private LoxEvents() {}
+
+    // The begin methods start an event, and end() commits it if a
+    // recording wants it, e.g. because it took longer than the
+    // threshold. Only call them when enabled.
+    static FunctionCall beginCall() {
+        FunctionCall event = new FunctionCall();
+        event.begin();
+        return event;
+    }
+
+    static void end(FunctionCall event, Token name) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.function = name == null ? "<lambda>" : name.lexeme();
+            event.line = name == null ? 0 : name.line();
+            event.commit();
+        }
+    }
+
+    static Instantiation beginInstantiation() {
+        Instantiation event = new Instantiation();
+        event.begin();
+        return event;
+    }
+
+    static void end(Instantiation event, String className) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.className = className;
+            event.commit();
+        }
+    }
+
+    static FileRun beginFileRun() {
+        FileRun event = new FileRun();
+        event.begin();
+        return event;
+    }
+
+    static void end(FileRun event, String path, boolean reload) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = path;
+            event.reload = reload;
+            event.commit();
+        }
+    }
+
+    static void scriptError(RuntimeError error) {
+        ScriptError event = new ScriptError();
+        if (event.shouldCommit()) {
+            event.message = error.getMessage();
+            event.line = error.token.line();
+            event.commit();
+        }
+    }
+
+    @Name("lox.FunctionCall")
+    @Label("Lox Function Call")
+    @Category("Lox")
+    @Description("A call to a Lox function or method that took longer than the threshold")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class FunctionCall extends Event {
+        @Label("Function")
+        String function;
+
+        @Label("Line")
+        @Description("Where the function is declared, or 0 for a lambda")
+        int line;
+    }
+
+    @Name("lox.Instantiation")
+    @Label("Lox Instantiation")
+    @Category("Lox")
+    @Description("Creating an instance of a Lox class, init() included, " +
+            "that took longer than the threshold")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class Instantiation extends Event {
+        @Label("Class")
+        String className;
+    }
+
+    @Name("lox.FileRun")
+    @Label("Lox File Run")
+    @Category("Lox")
+    @Description("A file run by loadFile(), or run again by reload()")
+    @StackTrace(false)
+    static final class FileRun extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Reload")
+        boolean reload;
+    }
+
+    @Name("lox.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Category("Lox")
+    @Description("A runtime error reported to the script's error stream")
+    @StackTrace(false)
+    static final class ScriptError extends Event {
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+    }
+}
@@ -0,0 +1,9 @@
+package com.craftinginterpreters.lox;
+
+public class LoxException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    LoxException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,47 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+
+class LoxFiber {
+    private final Thread thread;
+    private Object result;
+    // Anything other than a RuntimeError that ended the fiber, passed on
+    // to whoever joins it.
+    private Throwable failure;
+
+    // Runs on a virtual thread, so tens of thousands of mostly-waiting
+    // fibers stay cheap. Virtual threads don't keep the JVM alive: a fiber
+    // that hasn't been joined when the main script ends is stopped with it.
+    LoxFiber(Interpreter interpreter, LoxCallable function) {
+        thread = Thread.ofVirtual().name("lox-fiber").start(() -> {
+            try {
+                result = function.call(interpreter, new ArrayList<>());
+            } catch (RuntimeError error) {
+                interpreter.reporter.runtimeError(error);
+            } catch (Throwable failure) {
+                this.failure = failure;
+            }
+        });
+    }
+
+    Object join() throws InterruptedException {
+        thread.join();
+        if (failure != null) {
+            // Reported against the join() call by visitCallExpr.
+            throw new NativeError("Fiber failed: " +
+                    describe(failure));
+        }
+        return result;
+    }
+
+    private static String describe(Throwable failure) {
+        if (failure instanceof StackOverflowError) return "stack overflow.";
+        if (failure.getMessage() != null) return failure.getMessage();
+        return failure.getClass().getSimpleName() + ".";
+    }
+
+    @Override
+    public String toString() {
+        return "<fiber>";
+    }
+}
@@ -1,13 +1,25 @@
 package com.craftinginterpreters.lox;
 
+import com.craftinginterpreters.utils.Tuple;
+
+import java.io.Serializable;
 import java.util.List;
+import java.util.Map;
+
+// Its maps and lists are always serializable ones, for snapshots.
+@SuppressWarnings("serial")
+class LoxFunction implements LoxCallable, Serializable {
+    private static final long serialVersionUID = 1L;
 
-class LoxFunction implements LoxCallable {
     private final Environment closure;
+    private final Map<Expr, Tuple<Integer, Integer>> locals;
+    private final Map<String, Object> globals;
     private final Decl declaration;
     private final boolean isInitializer;
 
-    private static class Decl {
+    private static class Decl implements Serializable {
+        private static final long serialVersionUID = 1L;
+
         Token name;
         List<Token> params;
         List<Stmt> body;
@@ -34,16 +46,21 @@ class LoxFunction implements LoxCallable {
         }
     }
 
-    LoxFunction(Environment closure, Object declaration, boolean isInitializer) {
+    LoxFunction(Environment closure, Map<Expr, Tuple<Integer, Integer>> locals,
+                Map<String, Object> globals, Object declaration,
+                boolean isInitializer) {
         this.closure = closure;
+        this.locals = locals;
+        this.globals = globals;
         this.declaration = decl(declaration);
         this.isInitializer = isInitializer;
     }
 
     LoxFunction bind(LoxInstance instance) {
+        if (Metrics.enabled) Metrics.binds.increment();
         Environment environment = new Environment(closure);
         environment.define("this", instance);
-        return new LoxFunction(environment, declaration, isInitializer);
+        return new LoxFunction(environment, locals, globals, declaration, isInitializer);
     }
 
     @Override
@@ -53,14 +70,35 @@ class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        if (Metrics.enabled) Metrics.calls.increment();
+        LoxEvents.FunctionCall event =
+                LoxEvents.enabled ? LoxEvents.beginCall() : null;
+        Profiler.Stack stack =
+                Profiler.enabled ? Profiler.enter(declaration.name) : null;
+        try {
+            return invoke(interpreter, arguments);
+        } finally {
+            if (stack != null) stack.pop();
+            if (event != null) LoxEvents.end(event, declaration.name);
+        }
+    }
+
+    private Object invoke(Interpreter interpreter, List<Object> arguments) {
         Environment environment = new Environment(closure);
         for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme,
+            environment.define(declaration.params.get(i).lexeme(),
                                arguments.get(i));
         }
 
+        List<Stmt> body = declaration.body;
+        Map<Expr, Tuple<Integer, Integer>> locals = this.locals;
+        if (body instanceof DeferredBody deferred) {
+            body = deferred.compile(interpreter.reporter);
+            locals = deferred.locals();
+        }
+
         try {
-            interpreter.executeBlock(declaration.body, environment);
+            interpreter.executeBlock(body, environment, locals, globals);
         } catch (Return returnValue) {
             if (isInitializer) return closure.get(0, 0);
             return returnValue.value;
@@ -72,6 +110,6 @@ class LoxFunction implements LoxCallable {
 
     @Override
     public String toString() {
-        return "<fn " + declaration.name.lexeme + ">";
+        return "<fn " + declaration.name.lexeme() + ">";
     }
 }
@@ -2,28 +2,39 @@ package com.craftinginterpreters.lox;
 
 import com.craftinginterpreters.utils.Tuple;
 
+import java.io.Serializable;
 import java.util.HashMap;
-import java.util.Map;
-import java.util.function.Function;
 
-class LoxInstance {
+class LoxInstance implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private final ClassDescription klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    private final HashMap<String, Object> fields = new HashMap<>();
+
+    private static class ClassDescription implements Serializable {
+        private static final long serialVersionUID = 1L;
 
-    private static class ClassDescription {
         private final String name;
-        private final Function<String, Tuple<LoxFunction, Boolean>> findMethod;
+        // A LoxClass or a Metaclass.
+        @SuppressWarnings("serial")
+        private final Object klass;
 
         ClassDescription(Object klass) {
             if (klass instanceof Metaclass) {
                 this.name = ((Metaclass) klass).name;
-                this.findMethod = ((Metaclass) klass)::findMethod;
             } else if (klass instanceof LoxClass) {
                 this.name = ((LoxClass) klass).name;
-                this.findMethod = ((LoxClass) klass)::findMethod;
             } else {
                 throw new RuntimeException();
             }
+            this.klass = klass;
+        }
+
+        Tuple<LoxFunction, Boolean> findMethod(String name) {
+            if (klass instanceof Metaclass) {
+                return ((Metaclass) klass).findMethod(name);
+            }
+            return ((LoxClass) klass).findMethod(name);
         }
     }
 
@@ -32,11 +43,11 @@ class LoxInstance {
     }
 
     protected Object get(Token name, Interpreter interpreter) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+        if (fields.containsKey(name.lexeme())) {
+            return fields.get(name.lexeme());
         }
 
-        Tuple<LoxFunction, Boolean> tuple = klass.findMethod.apply(name.lexeme);
+        Tuple<LoxFunction, Boolean> tuple = klass.findMethod(name.lexeme());
         if (tuple != null) {
             LoxFunction method = tuple.fst.bind(this);
             if (!tuple.snd) return method;
@@ -44,11 +55,11 @@ class LoxInstance {
         }
 
         throw new RuntimeError(name,
-                "Undefined property '" + name.lexeme + "'.");
+                "Undefined property '" + name.lexeme() + "'.");
     }
 
     void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        fields.put(name.lexeme(), value);
     }
 
     @Override
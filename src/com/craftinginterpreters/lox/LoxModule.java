@@ -0,0 +1,110 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A file loaded through import(). Nothing is read until the first access
+// to one of its exports; after that, the top-level names it defined stay
+// cached in its own globals.
+class LoxModule {
+    final Path path;
+    // Modules imported by this one's top-level code.
+    final CopyOnWriteArrayList<LoxModule> dependencies = new CopyOnWriteArrayList<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile Interpreter namespace;
+
+    // Who is running which module's top level, and which module each
+    // thread is blocked on, so that an import cycle between fibers is
+    // reported rather than deadlocking. Both guarded by waitingFor.
+    private static final Map<Thread, LoxModule> waitingFor = new HashMap<>();
+    private Thread initializer;
+
+    LoxModule(Path path) {
+        this.path = path;
+    }
+
+    // An import path, relative to the file at base, or to the working
+    // directory when base is null.
+    static Path resolve(Path base, String name) {
+        return base == null ? Paths.get(name) : base.resolveSibling(name);
+    }
+
+    Object get(Token name, Interpreter importer) {
+        Interpreter namespace = initialize(name, importer);
+        if (!namespace.hasGlobal(name.lexeme())) {
+            throw new RuntimeError(name, "Module '" + path.getFileName() +
+                    "' has no export '" + name.lexeme() + "'.");
+        }
+        return namespace.getGlobal(name.lexeme());
+    }
+
+    private Interpreter initialize(Token name, Interpreter importer) {
+        Interpreter result = namespace;
+        if (result != null) return result;
+
+        Thread current = Thread.currentThread();
+        synchronized (waitingFor) {
+            if (waitsOn(current)) {
+                throw new RuntimeError(name,
+                        "Circular import of '" + path.getFileName() + "'.");
+            }
+            waitingFor.put(current, this);
+        }
+
+        lock.lock();
+        synchronized (waitingFor) {
+            waitingFor.remove(current);
+            initializer = current;
+        }
+        try {
+            if (namespace == null) {
+                Interpreter interpreter = importer.forModule(this);
+                LoxScript script;
+                try {
+                    script = interpreter.loader.load(path, interpreter.reporter);
+                } catch (IOException e) {
+                    throw new RuntimeError(name,
+                            "Can't read module '" + path + "'.");
+                }
+                if (script == null) {
+                    throw new RuntimeError(name, "Module '" +
+                            path.getFileName() + "' has errors.");
+                }
+
+                interpreter.executeScript(script);
+                namespace = interpreter;
+            }
+            return namespace;
+        } finally {
+            synchronized (waitingFor) {
+                initializer = null;
+            }
+            lock.unlock();
+        }
+    }
+
+    // Whether waiting for this module would wait, through the modules
+    // other threads are initializing, on one the given thread holds.
+    private boolean waitsOn(Thread thread) {
+        LoxModule module = this;
+        for (int i = 0; i <= waitingFor.size(); i++) {
+            Thread holder = module.initializer;
+            if (holder == null) return false;
+            if (holder == thread) return true;
+            module = waitingFor.get(holder);
+            if (module == null) return false;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "<module " + path.getFileName() + ">";
+    }
+}
@@ -0,0 +1,80 @@
+package com.craftinginterpreters.lox;
+
+import com.craftinginterpreters.utils.Tuple;
+
+import java.io.Reader;
+import java.util.List;
+import java.util.Map;
+
+// A parsed and resolved program. It is never modified after compile(),
+// so one instance can be executed by any number of contexts at once.
+public final class LoxScript {
+    final List<Stmt> statements;
+    final Map<Expr, Tuple<Integer, Integer>> locals;
+    // The arrays the statements are inflated from, if compiled to a
+    // FlatAst.
+    final FlatAst flat;
+
+    LoxScript(List<Stmt> statements,
+              Map<Expr, Tuple<Integer, Integer>> locals) {
+        this(statements, locals, null);
+    }
+
+    LoxScript(List<Stmt> statements,
+              Map<Expr, Tuple<Integer, Integer>> locals, FlatAst flat) {
+        this.statements = statements;
+        this.locals = locals;
+        this.flat = flat;
+    }
+
+    static LoxScript compile(CharSequence source, ErrorReporter reporter) {
+        return compile(source, reporter, DeferredBody.enabled);
+    }
+
+    static LoxScript compile(CharSequence source, ErrorReporter reporter,
+                             boolean lazyBodies) {
+        // Judge this source by its own errors, so that one bad file
+        // doesn't stop every later load; the flag stays set for exit codes.
+        boolean hadError = reporter.hadError;
+        reporter.hadError = false;
+        try {
+            return compile(ParallelScanner.of(source, reporter), reporter,
+                    lazyBodies);
+        } finally {
+            reporter.hadError |= hadError;
+        }
+    }
+
+    static LoxScript compile(Reader source, ErrorReporter reporter) {
+        boolean hadError = reporter.hadError;
+        reporter.hadError = false;
+        try {
+            return compile(new Scanner(source, reporter), reporter);
+        } finally {
+            reporter.hadError |= hadError;
+        }
+    }
+
+    static LoxScript compile(TokenStream tokens, ErrorReporter reporter) {
+        return compile(tokens, reporter, DeferredBody.enabled);
+    }
+
+    static LoxScript compile(TokenStream tokens, ErrorReporter reporter,
+                             boolean lazyBodies) {
+        if (FlatAst.enabled) return FlatAst.compile(tokens, reporter);
+
+        Parser parser = new Parser(tokens, reporter, lazyBodies);
+        List<Stmt> statements = parser.parse();
+
+        // Stop if there was a syntax error.
+        if (reporter.hadError) return null;
+
+        Resolver resolver = new Resolver(reporter);
+        resolver.resolve(statements);
+
+        // Stop if there was a resolution error.
+        if (reporter.hadError) return null;
+
+        return new LoxScript(List.copyOf(statements), resolver.locals());
+    }
+}
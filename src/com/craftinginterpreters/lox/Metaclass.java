@@ -2,10 +2,14 @@ package com.craftinginterpreters.lox;
 
 import com.craftinginterpreters.utils.Tuple;
 
+import java.io.Serializable;
 import java.util.List;
 import java.util.Map;
 
-class Metaclass implements LoxCallable {
+@SuppressWarnings("serial")
+class Metaclass implements LoxCallable, Serializable {
+    private static final long serialVersionUID = 1L;
+
     final String name;
     final LoxClass superclass;
     private final Map<String, LoxFunction> methods;
@@ -17,6 +21,7 @@ class Metaclass implements LoxCallable {
     }
 
     Tuple<LoxFunction, Boolean> findMethod(String name) {
+        if (Metrics.enabled) Metrics.methodLookups.increment();
         if (methods.containsKey(name)) {
             return new Tuple<>(methods.get(name), false);
         }
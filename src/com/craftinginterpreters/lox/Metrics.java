@@ -0,0 +1,126 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Counts of what the interpreter does, across every context in the JVM.
+// LongAdders are striped per thread, so fibers don't contend on them.
+// Scripts read them with stats(). With -Dlox.metrics=jmx they are also
+// published to JMX as com.craftinginterpreters.lox:type=Metrics; that
+// starts the platform MBean server, which costs tens of milliseconds,
+// so it isn't done otherwise. Set -Dlox.metrics=false to take the
+// counting out: every increment is behind a constant.
+final class Metrics implements MetricsMXBean {
+    static final boolean enabled =
+            !"false".equals(System.getProperty("lox.metrics"));
+    private static final boolean jmx = "jmx".equals(System.getProperty("lox.metrics"));
+
+    static final LongAdder environments = new LongAdder();
+    static final LongAdder calls = new LongAdder();
+    static final LongAdder binds = new LongAdder();
+    // One per class visited, so a walk up a deep hierarchy counts each
+    // step.
+    static final LongAdder methodLookups = new LongAdder();
+    static final LongAdder globalLookups = new LongAdder();
+    static final LongAdder flowThrows = new LongAdder();
+    static final LongAdder returnThrows = new LongAdder();
+    // Only written when a new peak is reached, so nearly always just a
+    // read.
+    static final LongAccumulator peakDepth = new LongAccumulator(Math::max, 0);
+    private static final Map<String, LongAdder> instances = new ConcurrentHashMap<>();
+
+    private static final LoxClass statsClass =
+            new LoxClass("Stats", null, List.of(), Map.of(), Map.of());
+    private static final LoxClass instancesClass =
+            new LoxClass("Instances", null, List.of(), Map.of(), Map.of());
+
+    static {
+        // Even when asked for, the MBean server is left off the startup
+        // path.
+        if (jmx) Thread.ofPlatform().daemon().name("lox-metrics").start(() -> {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(
+                        new Metrics(),
+                        new ObjectName("com.craftinginterpreters.lox:type=Metrics"));
+            } catch (JMException e) {
+                System.err.println("Could not register metrics: " + e.getMessage());
+            }
+        });
+    }
+
+    private Metrics() {}
+
+    static void instance(String className) {
+        LongAdder count = instances.get(className);
+        if (count == null) {
+            count = instances.computeIfAbsent(className, k -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    static Map<String, Long> counters() {
+        Map<String, Long> counters = new TreeMap<>();
+        counters.put("environments", environments.sum());
+        counters.put("calls", calls.sum());
+        counters.put("binds", binds.sum());
+        counters.put("methodLookups", methodLookups.sum());
+        counters.put("globalLookups", globalLookups.sum());
+        counters.put("flowThrows", flowThrows.sum());
+        counters.put("returnThrows", returnThrows.sum());
+        counters.put("peakEnvironmentDepth", peakDepth.get());
+        return counters;
+    }
+
+    // What stats() returns: a field per counter, and an instances field
+    // with a field per class.
+    static LoxInstance toLox() {
+        LoxInstance stats = new LoxInstance(statsClass);
+        counters().forEach((name, count) -> set(stats, name, count));
+        LoxInstance perClass = new LoxInstance(instancesClass);
+        instances().forEach((name, count) -> set(perClass, name, count));
+        set(stats, "instances", perClass);
+        return stats;
+    }
+
+    private static void set(LoxInstance instance, String name, Object value) {
+        instance.set(new Token(TokenType.IDENTIFIER, name, null, 0),
+                value instanceof Long count ? (double) count : value);
+    }
+
+    static Map<String, Long> instances() {
+        Map<String, Long> counts = new TreeMap<>();
+        instances.forEach((name, count) -> counts.put(name, count.sum()));
+        return counts;
+    }
+
+    @Override public long getEnvironments() { return environments.sum(); }
+    @Override public long getCalls() { return calls.sum(); }
+    @Override public long getBinds() { return binds.sum(); }
+    @Override public long getMethodLookups() { return methodLookups.sum(); }
+    @Override public long getGlobalLookups() { return globalLookups.sum(); }
+    @Override public long getFlowThrows() { return flowThrows.sum(); }
+    @Override public long getReturnThrows() { return returnThrows.sum(); }
+    @Override public long getPeakEnvironmentDepth() { return peakDepth.get(); }
+    @Override public Map<String, Long> getInstancesByClass() { return instances(); }
+
+    @Override
+    public void reset() {
+        environments.reset();
+        calls.reset();
+        binds.reset();
+        methodLookups.reset();
+        globalLookups.reset();
+        flowThrows.reset();
+        returnThrows.reset();
+        peakDepth.reset();
+        instances.clear();
+    }
+}
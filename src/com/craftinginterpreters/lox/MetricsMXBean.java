@@ -0,0 +1,19 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Map;
+
+// What Metrics publishes over JMX, as
+// com.craftinginterpreters.lox:type=Metrics. JMX only reads public
+// interfaces, hence the one public type for a package-private class.
+public interface MetricsMXBean {
+    long getEnvironments();
+    long getCalls();
+    long getBinds();
+    long getMethodLookups();
+    long getGlobalLookups();
+    long getFlowThrows();
+    long getReturnThrows();
+    long getPeakEnvironmentDepth();
+    Map<String, Long> getInstancesByClass();
+    void reset();
+}
@@ -0,0 +1,11 @@
+package com.craftinginterpreters.lox;
+
+// A misuse caught by a native function, which has no token of its own.
+// visitCallExpr reports it against the call as a RuntimeError.
+class NativeError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    NativeError(String message) {
+        super(message);
+    }
+}
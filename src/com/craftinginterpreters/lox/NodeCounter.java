@@ -0,0 +1,195 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Counts the nodes of a parsed script by type, function bodies and
+// class members included.
+class NodeCounter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    final Map<String, Integer> counts = new TreeMap<>();
+    int total = 0;
+
+    NodeCounter(List<Stmt> statements) {
+        count(statements);
+    }
+
+    private void count(List<Stmt> statements) {
+        for (Stmt statement : statements) count(statement);
+    }
+
+    private void count(Stmt stmt) {
+        if (stmt == null) return;
+        counted(stmt);
+        stmt.accept(this);
+    }
+
+    private void count(Expr expr) {
+        if (expr == null) return;
+        counted(expr);
+        expr.accept(this);
+    }
+
+    private void counted(Object node) {
+        counts.merge(node.getClass().getSimpleName(), 1, Integer::sum);
+        total++;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        count(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        count(stmt.superclass);
+        for (Expr.Variable trait : stmt.traits) count(trait);
+        for (Stmt.Function method : stmt.methods.keySet()) count(method);
+        for (Stmt.Function method : stmt.staticMethods) count(method);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        count(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFlowStmt(Stmt.Flow stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        count(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        count(stmt.condition);
+        count(stmt.thenBranch);
+        count(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        count(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        count(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitTraitStmt(Stmt.Trait stmt) {
+        for (Stmt.Function method : stmt.defaultImpls) count(method);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        count(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        count(stmt.condition);
+        count(stmt.body);
+        count(stmt.increment);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        count(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        count(expr.left);
+        count(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        count(expr.callee);
+        for (Expr argument : expr.arguments) count(argument);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        count(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        count(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLambdaExpr(Expr.Lambda expr) {
+        count(expr.body);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        count(expr.left);
+        count(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        count(expr.object);
+        count(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        count(expr.condition);
+        count(expr.trueBranch);
+        count(expr.falseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        count(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        return null;
+    }
+}
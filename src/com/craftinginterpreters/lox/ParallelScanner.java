@@ -0,0 +1,208 @@
+package com.craftinginterpreters.lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.craftinginterpreters.lox.TokenType.EOF;
+
+// Scans one large source on several cores. The source is cut into chunks
+// right after newlines and every chunk is scanned on the common pool,
+// guessing that it starts between lexemes. A Scanner's only state
+// between lexemes is its position and line, and lines are counted up
+// front, so a chunk whose guess holds produces exactly what a single
+// Scanner would have. When a string or block comment from an earlier
+// chunk runs into this one, the guess was wrong and the rest of the
+// chunk is scanned again from where that lexeme really ended.
+//
+// Only a few chunks per core are scanned ahead of the Parser, and each
+// is dropped once stitched in, so the tokens held at any time are
+// bounded by that window rather than by the size of the source.
+//
+// Chunks are stitched in order as the Parser pulls tokens. A chunk's
+// errors are replayed just before the token that followed them, which is
+// when a single Scanner would have reported them, so both the token
+// sequence and the order of the error reports match a sequential scan.
+class ParallelScanner implements TokenStream {
+    // Below this, a plain Scanner is faster than splitting the work.
+    static final int MIN_LENGTH = 1 << 20;
+    static final int CHUNK_SIZE = MIN_LENGTH / 4;
+
+    // errorRows[i] is the row of the token that errors[i] came before.
+    private record Chunk(TokenBuffer tokens, int end,
+                         List<String> errors, int[] errorRows) {}
+
+    private final CharSequence source;
+    private final ErrorReporter reporter;
+    private final int[] bounds;
+    private final int[] lines;
+    // Chunks being scanned ahead; null once stitched, or not started.
+    private final List<CompletableFuture<Chunk>> chunks;
+    private final int window;
+    private int submitted = 0;
+    // Where the stitched scan has got to.
+    private int position = 0;
+    private int chunk = -1;
+    private Chunk current = null;
+    private int row = 0;
+    private int replayed = 0;
+
+    ParallelScanner(CharSequence source, ErrorReporter reporter,
+                    int chunkSize, int window) {
+        this.source = source;
+        this.reporter = reporter;
+        this.window = window;
+
+        List<Integer> starts = new ArrayList<>();
+        starts.add(0);
+        for (int at = chunkSize; at < source.length(); ) {
+            int newline = indexOf(source, '\n', at);
+            if (newline + 1 >= source.length()) break;
+            starts.add(newline + 1);
+            at = newline + 1 + chunkSize;
+        }
+        bounds = new int[starts.size() + 1];
+        for (int i = 0; i < starts.size(); i++) bounds[i] = starts.get(i);
+        bounds[starts.size()] = source.length();
+
+        // The line each chunk starts on; newlines count the same whatever
+        // lexeme they are in.
+        List<CompletableFuture<Integer>> newlines = new ArrayList<>();
+        for (int i = 0; i + 1 < bounds.length; i++) {
+            int from = bounds[i];
+            int to = bounds[i + 1];
+            newlines.add(CompletableFuture.supplyAsync(
+                    () -> countNewlines(source, from, to)));
+        }
+        lines = new int[bounds.length];
+        lines[0] = 1;
+        for (int i = 0; i < newlines.size(); i++) {
+            lines[i + 1] = lines[i] + newlines.get(i).join();
+        }
+
+        chunks = new ArrayList<>(Collections.nCopies(bounds.length - 1, null));
+        while (submitted < Math.min(window, chunks.size())) submit();
+    }
+
+    // Keeps every core busy with a couple of chunks.
+    static TokenStream of(CharSequence source, ErrorReporter reporter) {
+        int cores = ForkJoinPool.getCommonPoolParallelism();
+        if (cores < 2 || source.length() < MIN_LENGTH) {
+            return new Scanner(source, reporter);
+        }
+        return new ParallelScanner(source, reporter, CHUNK_SIZE, cores * 2);
+    }
+
+    private void submit() {
+        int index = submitted++;
+        int from = bounds[index];
+        int to = bounds[index + 1];
+        int line = lines[index];
+        chunks.set(index, CompletableFuture.supplyAsync(
+                () -> scan(source, from, to, line)));
+    }
+
+    @Override
+    public Token next() {
+        if (!nextChunk()) return new Token(EOF, "", null, lines[lines.length - 1]);
+        return current.tokens().token(row++);
+    }
+
+    @Override
+    public int next(TokenBuffer buffer) {
+        if (!nextChunk()) {
+            return buffer.add(EOF, "", source.length(), 0, null,
+                    lines[lines.length - 1]);
+        }
+        return buffer.add(current.tokens(), row++);
+    }
+
+    @Override
+    public TokenBuffer newBuffer() {
+        return new TokenBuffer(source);
+    }
+
+    // Moves on to the next chunk that has tokens left, and reports the
+    // errors that come before the next token. Returns false once every
+    // chunk is used up.
+    private boolean nextChunk() {
+        while (current == null || row == current.tokens().size()) {
+            if (current != null) replayErrors(Integer.MAX_VALUE);
+            if (chunk + 1 == chunks.size()) return false;
+            chunk++;
+            current = stitch(chunk);
+            row = 0;
+            replayed = 0;
+        }
+        replayErrors(row);
+        return true;
+    }
+
+    private void replayErrors(int upToRow) {
+        while (replayed < current.errors().size() &&
+                current.errorRows()[replayed] <= upToRow) {
+            reporter.replayError(current.errors().get(replayed++));
+        }
+    }
+
+    private Chunk stitch(int index) {
+        Chunk result = chunks.get(index).join();
+        chunks.set(index, null);
+        if (submitted < chunks.size()) submit();
+        int from = bounds[index];
+        int to = bounds[index + 1];
+
+        // The guess was wrong: a lexeme from an earlier chunk ran into
+        // this one. Scan what is left of the chunk from where it ended.
+        if (position != from) {
+            if (position >= to) {
+                return new Chunk(new TokenBuffer(source), position,
+                        List.of(), new int[0]);
+            }
+            int line = lines[index] + countNewlines(source, from, position);
+            result = scan(source, position, to, line);
+        }
+
+        position = result.end();
+        return result;
+    }
+
+    private static Chunk scan(CharSequence source, int from, int to, int line) {
+        // Errors are held back until the chunk is known to be right.
+        ErrorReporter reporter = new ErrorReporter(
+                new PrintStream(OutputStream.nullOutputStream()));
+        Scanner scanner = new Scanner(source, reporter, from, to, line);
+        TokenBuffer tokens = new TokenBuffer(source);
+        List<Integer> errorRows = new ArrayList<>();
+        boolean more;
+        do {
+            more = scanner.nextInChunk(tokens);
+            int row = more ? tokens.size() - 1 : tokens.size();
+            while (errorRows.size() < reporter.errors.size()) errorRows.add(row);
+        } while (more);
+
+        int[] rows = errorRows.stream().mapToInt(Integer::intValue).toArray();
+        return new Chunk(tokens, scanner.position(), reporter.errors, rows);
+    }
+
+    private static int indexOf(CharSequence source, char c, int from) {
+        if (source instanceof Utf8Source utf8) return utf8.indexOfAny(from, c, c, c);
+        for (int i = from; i < source.length(); i++) {
+            if (source.charAt(i) == c) return i;
+        }
+        return source.length();
+    }
+
+    private static int countNewlines(CharSequence source, int from, int to) {
+        int count = 0;
+        for (int i = indexOf(source, '\n', from); i < to;
+             i = indexOf(source, '\n', i + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -5,10 +5,24 @@ import java.util.*;
 import static com.craftinginterpreters.lox.TokenType.*;
 
 class Parser {
-    private static class ParseError extends RuntimeException {}
+    private static class ParseError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
     
-    private final List<Token> tokens;
-    private int current = 0;
+    // Tokens are read into a buffer that is emptied as parsing moves on,
+    // so memory doesn't grow with the size of the source. Token objects
+    // are only created for the tokens the AST keeps.
+    private static final int BUFFER_ROWS = 256;
+    private final TokenStream tokens;
+    private final TokenBuffer buffer;
+    private final ErrorReporter reporter;
+    private int current;
+    private int previous = -1;
+    private boolean isGetterMethod = false;
+    // Whether top-level function and method bodies are left to
+    // DeferredBody, and how many blocks the parser is inside of.
+    private final boolean lazyBodies;
+    private int blockDepth = 0;
     private static final Map<TokenType, Token> compoundAssignMap;
 
     static {
@@ -19,8 +33,100 @@ class Parser {
         compoundAssignMap.put(SLASH_EQUAL, new Token(SLASH, "/", null, 0));
     }
 
-    Parser(List<Token> tokens) {
+    // Expressions are parsed by precedence climbing. Each token type has
+    // a rule saying how to parse an expression that starts with it, how
+    // to parse one where it follows a left operand, and how tightly it
+    // binds in that second case.
+    private enum Precedence {
+        NONE,
+        COMMA,       // ,
+        ASSIGNMENT,  // =
+        COMPOUND,    // += -= *= /=
+        TERNARY,     // ?:
+        OR,          // or
+        AND,         // and
+        EQUALITY,    // == !=
+        COMPARISON,  // < > <= >=
+        MOD,         // %
+        TERM,        // + -
+        FACTOR,      // * /
+        UNARY,       // ! -
+        CALL;        // . ()
+
+        private static final Precedence[] levels = values();
+
+        // The operands of a binary operator bind one level tighter, which
+        // makes the operator left-associative.
+        Precedence next() {
+            return levels[ordinal() + 1];
+        }
+    }
+
+    private interface PrefixParselet {
+        Expr parse(Parser parser);
+    }
+
+    private interface InfixParselet {
+        Expr parse(Parser parser, Expr left);
+    }
+
+    private record ParseRule(PrefixParselet prefix, InfixParselet infix,
+                             Precedence precedence) {}
+
+    private static final ParseRule[] rules =
+            new ParseRule[TokenType.values().length];
+
+    static {
+        Arrays.fill(rules, new ParseRule(null, null, Precedence.NONE));
+        rule(LEFT_PAREN, Parser::grouping, Parser::finishCall, Precedence.CALL);
+        rule(DOT, null, Parser::get, Precedence.CALL);
+        rule(COMMA, null, Parser::comma, Precedence.COMMA);
+        rule(EQUAL, null, Parser::assignment, Precedence.ASSIGNMENT);
+        rule(PLUS_EQUAL, null, Parser::compoundAssignment, Precedence.COMPOUND);
+        rule(MINUS_EQUAL, null, Parser::compoundAssignment, Precedence.COMPOUND);
+        rule(STAR_EQUAL, null, Parser::compoundAssignment, Precedence.COMPOUND);
+        rule(SLASH_EQUAL, null, Parser::compoundAssignment, Precedence.COMPOUND);
+        rule(INTERR, null, Parser::ternary, Precedence.TERNARY);
+        rule(OR, null, Parser::logical, Precedence.OR);
+        rule(AND, null, Parser::logical, Precedence.AND);
+        rule(EQUAL_EQUAL, Parser::missingOperand, Parser::binary, Precedence.EQUALITY);
+        rule(BANG_EQUAL, Parser::missingOperand, Parser::binary, Precedence.EQUALITY);
+        rule(GREATER, Parser::missingOperand, Parser::binary, Precedence.COMPARISON);
+        rule(GREATER_EQUAL, Parser::missingOperand, Parser::binary, Precedence.COMPARISON);
+        rule(LESS, Parser::missingOperand, Parser::binary, Precedence.COMPARISON);
+        rule(LESS_EQUAL, Parser::missingOperand, Parser::binary, Precedence.COMPARISON);
+        rule(MOD, null, Parser::binary, Precedence.MOD);
+        rule(PLUS, Parser::missingOperand, Parser::binary, Precedence.TERM);
+        rule(MINUS, Parser::unary, Parser::binary, Precedence.TERM);
+        rule(STAR, Parser::missingOperand, Parser::binary, Precedence.FACTOR);
+        rule(SLASH, Parser::missingOperand, Parser::binary, Precedence.FACTOR);
+        rule(BANG, Parser::unary, null, Precedence.NONE);
+        rule(FALSE, Parser::literal, null, Precedence.NONE);
+        rule(TRUE, Parser::literal, null, Precedence.NONE);
+        rule(NIL, Parser::literal, null, Precedence.NONE);
+        rule(NUMBER, Parser::literal, null, Precedence.NONE);
+        rule(STRING, Parser::literal, null, Precedence.NONE);
+        rule(THIS, Parser::this_, null, Precedence.NONE);
+        rule(SUPER, Parser::super_, null, Precedence.NONE);
+        rule(IDENTIFIER, Parser::variable, null, Precedence.NONE);
+        rule(FUN, Parser::lambda, null, Precedence.NONE);
+    }
+
+    private static void rule(TokenType type, PrefixParselet prefix,
+                             InfixParselet infix, Precedence precedence) {
+        rules[type.ordinal()] = new ParseRule(prefix, infix, precedence);
+    }
+
+    Parser(TokenStream tokens, ErrorReporter reporter) {
+        this(tokens, reporter, false);
+    }
+
+    Parser(TokenStream tokens, ErrorReporter reporter, boolean lazyBodies) {
         this.tokens = tokens;
+        this.reporter = reporter;
+        this.lazyBodies = lazyBodies;
+        this.buffer = tokens.newBuffer();
+        this.current = tokens.next(buffer);
     }
 
     List<Stmt> parse() {
@@ -32,7 +138,22 @@ class Parser {
         return statements;
     }
 
-    private Stmt declaration() {
+    // LoxDocument parses one top-level declaration at a time, so that it
+    // can stop as soon as the parse is back in step with the old one.
+    boolean atEnd() {
+        return isAtEnd();
+    }
+
+    // Where the next token starts in the source.
+    int offset() {
+        return buffer.start(current);
+    }
+
+    void shiftLines(Token.LineShift shift) {
+        buffer.shift = shift;
+    }
+
+    Stmt declaration() {
         try {
             if (match(CLASS)) return classDeclaration();
             if (match(FUN)) return function("function");
@@ -46,9 +167,9 @@ class Parser {
         }
     }
 
-    private static boolean isGetterMethod = false;
     private Stmt classDeclaration() {
-        Token name = consume(IDENTIFIER, "Expect class name.");
+        consume(IDENTIFIER, "Expect class name.");
+        Token name = previous();
 
         Expr.Variable superclass = null;
         if (match(LESS)) {
@@ -112,7 +233,7 @@ class Parser {
 
     private Stmt flowStatement() {
         Token flowToken = previous();
-        consume(SEMICOLON, "Expect ';' after '" + previous().lexeme + "'.");
+        consume(SEMICOLON, "Expect ';' after '" + flowToken.lexeme() + "'.");
         return new Stmt.Flow(flowToken);
     }
 
@@ -184,7 +305,8 @@ class Parser {
     }
 
     private Stmt traitDeclaration() {
-        Token name = consume(IDENTIFIER, "Expect trait name after 'Trait'.");
+        consume(IDENTIFIER, "Expect trait name after 'Trait'.");
+        Token name = previous();
         consume(LEFT_BRACE, "Expect '{' after trait name.");
 
         Map<Token, Integer> methods = new HashMap<>();
@@ -194,7 +316,8 @@ class Parser {
             if (match(DEFAULT)) {
                 defaultImpl.add(function("method"));
             } else {
-                Token methodName = consume(IDENTIFIER, "Expect method name.");
+                consume(IDENTIFIER, "Expect method name.");
+                Token methodName = previous();
                 consume(LEFT_PAREN, "Expect '(' after method name.");
                 int arity = countParams();
                 consume(RIGHT_PAREN, "Expect ')' after method name.");
@@ -216,7 +339,8 @@ class Parser {
     }
 
     private Stmt varDeclaration() {
-        Token name = consume(IDENTIFIER, "Expect variable name.");
+        consume(IDENTIFIER, "Expect variable name.");
+        Token name = previous();
 
         Expr initializer = null;
         if (match(EQUAL)) {
@@ -244,13 +368,14 @@ class Parser {
 
     private Stmt.Function getterMethod(Token name) {
         consume(LEFT_BRACE, "Expect '{' before method body.");
-        List<Stmt> body = block();
+        List<Stmt> body = functionBlock(name);
         isGetterMethod = true;
         return new Stmt.Function(name, new ArrayList<>(), body);
     }
 
     private Stmt.Function function(String kind) {
-        Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
+        consume(IDENTIFIER, "Expect " + kind + " name.");
+        Token name = previous();
 
         if (kind.equals("method") && !check(LEFT_PAREN)) {
             return getterMethod(name);
@@ -259,208 +384,421 @@ class Parser {
 
         List<Token> parameters = parameters();
         consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
-        List<Stmt> body = block();
+        List<Stmt> body = functionBlock(name);
         return new Stmt.Function(name, parameters, body);
     }
-    private List<Token> parameters() {
-        List<Token> parameters = new ArrayList<>();
-        if (!check(RIGHT_PAREN)) {
-            do {
-                if (parameters.size() >= 255) {
-                    error(peek(), "Can't have more than 255 parameters.");
-                }
-                parameters.add(
-                        consume(IDENTIFIER, "Expect parameter name."));
-            } while (match(COMMA));
+
+    // The body of a function or method, after its '{'. A lazy parser
+    // only checks the grammar of a top-level one, building no nodes, and
+    // keeps where it is in the source for DeferredBody to scan and parse
+    // again on the first call. Tokens read from a Reader can't be found
+    // again, so those bodies are parsed now.
+    private List<Stmt> functionBlock(Token name) {
+        CharSequence source = buffer.source();
+        if (!lazyBodies || blockDepth > 0 || source == null) return block();
+
+        int from = buffer.start(previous);
+        int line = buffer.line(previous);
+        checkBlock();
+        return new DeferredBody(name, source, from,
+                buffer.start(previous) + 1, line, reporter);
+    }
+
+    // Parses a body that a lazy parser skipped, braces included.
+    List<Stmt> functionBody() {
+        try {
+            consume(LEFT_BRACE, "Expect '{' before function body.");
+            return block();
+        } catch (ParseError error) {
+            return List.of();
         }
-        consume(RIGHT_PAREN, "Expect ')' after parameters.");
-        return parameters;
     }
+    // A recognizer for the grammar above, run over the bodies that a lazy
+    // parser skips. It follows the same steps and reports the same errors,
+    // so a body that gets through it will parse on its first call, but it
+    // only keeps track of whether an expression can be assigned to.
+    private enum Shape { VARIABLE, PROPERTY, OTHER }
 
-    private List<Stmt> block() {
-        List<Stmt> statements = new ArrayList<>();
+    private void checkDeclaration() {
+        try {
+            if (match(CLASS)) checkClass();
+            else if (match(FUN)) checkFunction("function");
+            else if (match(TRAIT)) checkTrait();
+            else if (match(VAR)) checkVar();
+            else checkStatement();
+        } catch (ParseError error) {
+            synchronize();
+        }
+    }
 
-        while (!check(RIGHT_BRACE) && !isAtEnd()) {
-            statements.add(declaration());
+    private void checkClass() {
+        consume(IDENTIFIER, "Expect class name.");
+        if (match(LESS)) consume(IDENTIFIER, "Expect superclass name.");
+        if (match(LEFT_PAREN)) {
+            while (!match(RIGHT_PAREN) && !isAtEnd()) {
+                consume(IDENTIFIER, "Expect trait(s) between the parentheses.");
+                if (!check(RIGHT_PAREN)) {
+                    consume(COMMA, "Expect comma.");
+                }
+            }
         }
 
-        consume(RIGHT_BRACE, "Expect '}' after block.");
-        return statements;
+        consume(LEFT_BRACE, "Expect '{' before class body.");
+        while (!check(RIGHT_BRACE) && !isAtEnd()) {
+            match(CLASS);
+            checkFunction("method");
+        }
+        consume(RIGHT_BRACE, "Expect '}' after class body.");
     }
 
-    private Expr expression() {
-        return comma();
+    private void checkFunction(String kind) {
+        consume(IDENTIFIER, "Expect " + kind + " name.");
+        if (kind.equals("method") && !check(LEFT_PAREN)) {
+            consume(LEFT_BRACE, "Expect '{' before method body.");
+            checkBlock();
+            return;
+        }
+        consume(LEFT_PAREN, "Expect '(' after " + kind + " name.");
+        checkParameters();
+        consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+        checkBlock();
     }
 
-    private Expr comma() {
-        Expr expr = assignment();
-
-        if (match(COMMA)) {
-            Token operator = previous();
-            Expr right = comma();
-            expr = new Expr.Binary(expr, operator, right);
+    private void checkTrait() {
+        consume(IDENTIFIER, "Expect trait name after 'Trait'.");
+        consume(LEFT_BRACE, "Expect '{' after trait name.");
+        while (!check(RIGHT_BRACE) && !isAtEnd()) {
+            if (match(DEFAULT)) {
+                checkFunction("method");
+            } else {
+                consume(IDENTIFIER, "Expect method name.");
+                consume(LEFT_PAREN, "Expect '(' after method name.");
+                countParams();
+                consume(RIGHT_PAREN, "Expect ')' after method name.");
+                consume(SEMICOLON, "Expect ';' after method declaration.");
+            }
         }
-
-        return expr;
+        consume(RIGHT_BRACE, "Expect '}' after trait body.");
     }
 
-    private Expr assignment() {
-        Expr expr = compoundAssignment();
+    private void checkVar() {
+        consume(IDENTIFIER, "Expect variable name.");
+        if (match(EQUAL)) checkExpression(Precedence.COMMA);
+        consume(SEMICOLON, "Expect ';' after variable declaration.");
+    }
 
-        if (match(EQUAL)) {
-            Token equals = previous();
-            Expr value = assignment();
-
-            if (expr instanceof Expr.Variable) {
-                Token name = ((Expr.Variable)expr).name;
-                return new Expr.Assign(name, value);
-            } else if (expr instanceof Expr.Get get) {
-                return new Expr.Set(get.object, get.name, value);
+    private void checkStatement() {
+        if (match(BREAK, CONTINUE)) {
+            String flow = buffer.type(previous) == BREAK ? "break" : "continue";
+            consume(SEMICOLON, "Expect ';' after '" + flow + "'.");
+        } else if (match(DO)) {
+            checkStatement();
+            consume(WHILE, "Expect 'while' after 'do' block.");
+            consume(LEFT_PAREN, "Expect '(' after 'while'.");
+            checkExpression(Precedence.COMMA);
+            consume(RIGHT_PAREN, "Expect ')' after condition expression.");
+            consume(SEMICOLON, "Expect ';' after condition.");
+        } else if (match(FOR)) {
+            consume(LEFT_PAREN, "Expect '(' after 'for'.");
+            if (match(VAR)) {
+                checkVar();
+            } else if (!match(SEMICOLON)) {
+                checkExpression(Precedence.COMMA);
+                consume(SEMICOLON, "Expect ';' after expression.");
             }
+            if (!check(SEMICOLON)) checkExpression(Precedence.COMMA);
+            consume(SEMICOLON, "Expect ';' after loop condition.");
+            if (!check(RIGHT_PAREN)) checkExpression(Precedence.COMMA);
+            consume(RIGHT_PAREN, "Expect ')' after for clauses.");
+            checkStatement();
+        } else if (match(IF)) {
+            consume(LEFT_PAREN, "Expect '(' after 'if'.");
+            checkExpression(Precedence.COMMA);
+            consume(RIGHT_PAREN, "Expect ')' after if condition.");
+            checkStatement();
+            if (match(ELSE)) checkStatement();
+        } else if (match(PRINT)) {
+            checkExpression(Precedence.COMMA);
+            consume(SEMICOLON, "Expect ';' after value.");
+        } else if (match(RETURN)) {
+            if (!check(SEMICOLON)) checkExpression(Precedence.COMMA);
+            consume(SEMICOLON, "Expect ';' after return value.");
+        } else if (match(WHILE)) {
+            consume(LEFT_PAREN, "Expect '(' after 'while'.");
+            checkExpression(Precedence.COMMA);
+            consume(RIGHT_PAREN, "Expect ')' after condition.");
+            checkStatement();
+        } else if (match(LEFT_BRACE)) {
+            checkBlock();
+        } else {
+            checkExpression(Precedence.COMMA);
+            consume(SEMICOLON, "Expect ';' after expression.");
+        }
+    }
 
-            error(equals, "Invalid assignment target.");
+    private void checkBlock() {
+        while (!check(RIGHT_BRACE) && !isAtEnd()) {
+            checkDeclaration();
         }
+        consume(RIGHT_BRACE, "Expect '}' after block.");
+    }
 
-        return expr;
+    private void checkParameters() {
+        int count = 0;
+        if (!check(RIGHT_PAREN)) {
+            do {
+                if (count++ >= 255) {
+                    error(peek(), "Can't have more than 255 parameters.");
+                }
+                consume(IDENTIFIER, "Expect parameter name.");
+            } while (match(COMMA));
+        }
+        consume(RIGHT_PAREN, "Expect ')' after parameters.");
     }
 
-    private Expr compoundAssignment() {
-        Expr expr = ternary();
+    // As parsePrecedence(), with the parselets written out as switches.
+    private Shape checkExpression(Precedence precedence) {
+        TokenType prefix = buffer.type(current);
+        if (rules[prefix.ordinal()].prefix() == null) {
+            throw error(peek(), "Expect expression.");
+        }
+        advance();
+        Shape shape = checkPrefix(prefix);
 
-        if (match(PLUS_EQUAL, MINUS_EQUAL, STAR_EQUAL, SLASH_EQUAL)) {
-            Token operator = previous();
-            Expr value = ternary();
-            if (expr instanceof Expr.Variable) {
-                Token name = ((Expr.Variable)expr).name;
-                return new Expr.Assign(name, new Expr.Binary(
-                        expr, compoundAssignMap.get(operator.type), value));
-            }
-            error(operator, "Invalid assignment target.");
+        int limit = Precedence.CALL.ordinal();
+        while (true) {
+            TokenType operator = buffer.type(current);
+            Precedence rule = rules[operator.ordinal()].precedence();
+            int infix = rule.ordinal();
+            if (infix < precedence.ordinal() || infix > limit) break;
+
+            advance();
+            shape = checkInfix(operator, rule, shape);
+            if (infix <= Precedence.TERNARY.ordinal()) limit = infix - 1;
         }
 
-        return expr;
+        return shape;
     }
 
-    private Expr ternary() {
-        Expr condition = or();
-
-        if (match(INTERR)) {
-            Expr t_branch = ternary();
-            consume(COLON, "Expect colon.");
-            Expr f_branch = ternary();
-            return new Expr.Ternary(condition, t_branch, f_branch);
+    private Shape checkPrefix(TokenType type) {
+        switch (type) {
+            case LEFT_PAREN -> {
+                checkExpression(Precedence.COMMA);
+                consume(RIGHT_PAREN, "Expect ')' after expression.");
+            }
+            case MINUS, BANG -> checkExpression(Precedence.UNARY);
+            case EQUAL_EQUAL, BANG_EQUAL, GREATER, GREATER_EQUAL, LESS,
+                    LESS_EQUAL, PLUS, STAR, SLASH -> {
+                checkExpression(rightOperand(type));
+                missingOperandError(type);
+            }
+            case SUPER -> {
+                consume(DOT, "Expect '.' after 'super'.");
+                consume(IDENTIFIER, "Expect superclass method name.");
+            }
+            case IDENTIFIER -> {
+                return Shape.VARIABLE;
+            }
+            case FUN -> {
+                consume(LEFT_PAREN, "Expect '(' after function name.");
+                checkParameters();
+                consume(LEFT_BRACE, "Expect '{' before function body.");
+                checkBlock();
+            }
+            default -> {}
         }
+        return Shape.OTHER;
+    }
 
-        return condition;
+    private Shape checkInfix(TokenType operator, Precedence precedence,
+                             Shape left) {
+        int line = buffer.line(previous);
+        switch (operator) {
+            case LEFT_PAREN -> {
+                int count = 0;
+                if (!check(RIGHT_PAREN)) {
+                    do {
+                        if (count++ >= 255)
+                            error(peek(), "Can't have more than 255 arguments.");
+                        checkExpression(Precedence.ASSIGNMENT);
+                    } while (match(COMMA));
+                }
+                consume(RIGHT_PAREN, "Expect ')' after arguments.");
+            }
+            case DOT -> {
+                consume(IDENTIFIER, "Expect property name after '.'.");
+                return Shape.PROPERTY;
+            }
+            case COMMA -> checkExpression(Precedence.COMMA);
+            case EQUAL -> {
+                checkExpression(Precedence.ASSIGNMENT);
+                if (left == Shape.OTHER) {
+                    return invalidTarget(operator, line, left);
+                }
+            }
+            case PLUS_EQUAL, MINUS_EQUAL, STAR_EQUAL, SLASH_EQUAL -> {
+                checkExpression(Precedence.TERNARY);
+                if (left != Shape.VARIABLE) {
+                    return invalidTarget(operator, line, left);
+                }
+            }
+            case INTERR -> {
+                checkExpression(Precedence.TERNARY);
+                consume(COLON, "Expect colon.");
+                checkExpression(Precedence.TERNARY);
+            }
+            default -> checkExpression(precedence.next());
+        }
+        return Shape.OTHER;
     }
 
-    private Expr or() {
-        Expr expr = and();
+    private Shape invalidTarget(TokenType operator, int line, Shape target) {
+        error(new Token(operator, Scanner.fixedLexeme(operator), null, line),
+                "Invalid assignment target.");
+        return target;
+    }
 
-        while (match(OR)) {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
+    private List<Token> parameters() {
+        List<Token> parameters = new ArrayList<>();
+        if (!check(RIGHT_PAREN)) {
+            do {
+                if (parameters.size() >= 255) {
+                    error(peek(), "Can't have more than 255 parameters.");
+                }
+                consume(IDENTIFIER, "Expect parameter name.");
+                parameters.add(previous());
+            } while (match(COMMA));
         }
-
-        return expr;
+        consume(RIGHT_PAREN, "Expect ')' after parameters.");
+        return parameters;
     }
 
-    private Expr and() {
-        Expr expr = equality();
+    private List<Stmt> block() {
+        List<Stmt> statements = new ArrayList<>();
 
-        while (match(AND)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
+        blockDepth++;
+        try {
+            while (!check(RIGHT_BRACE) && !isAtEnd()) {
+                statements.add(declaration());
+            }
+        } finally {
+            blockDepth--;
         }
 
-        return expr;
+        consume(RIGHT_BRACE, "Expect '}' after block.");
+        return statements;
+    }
+
+    private Expr expression() {
+        return parsePrecedence(Precedence.COMMA);
     }
 
-    private Expr equality() {
-        Expr expr = comparison();
+    // Parses an expression whose operators bind at least as tightly as
+    // precedence. The levels up to TERNARY take a single operator: after
+    // one of them only a looser operator may follow, as with the
+    // recursive descent this replaced.
+    private Expr parsePrecedence(Precedence precedence) {
+        ParseRule rule = rules[buffer.type(current).ordinal()];
+        if (rule.prefix() == null) throw error(peek(), "Expect expression.");
+        advance();
+        Expr expr = rule.prefix().parse(this);
+
+        int limit = Precedence.CALL.ordinal();
+        while (true) {
+            rule = rules[buffer.type(current).ordinal()];
+            int infix = rule.precedence().ordinal();
+            if (infix < precedence.ordinal() || infix > limit) break;
 
-        while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
+            advance();
+            expr = rule.infix().parse(this, expr);
+            if (infix <= Precedence.TERNARY.ordinal()) limit = infix - 1;
         }
 
         return expr;
     }
 
-    private Expr comparison() {
-        Expr expr = mod();
+    private Expr comma(Expr left) {
+        Token operator = previous();
+        Expr right = parsePrecedence(Precedence.COMMA);
+        return new Expr.Binary(left, operator, right);
+    }
+
+    private Expr assignment(Expr target) {
+        Token equals = previous();
+        Expr value = parsePrecedence(Precedence.ASSIGNMENT);
 
-        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-            Token operator = previous();
-            Expr right = mod();
-            expr = new Expr.Binary(expr, operator, right);
+        if (target instanceof Expr.Variable) {
+            Token name = ((Expr.Variable)target).name;
+            return new Expr.Assign(name, value);
+        } else if (target instanceof Expr.Get get) {
+            return new Expr.Set(get.object, get.name, value);
         }
 
-        return expr;
+        error(equals, "Invalid assignment target.");
+        return target;
     }
 
-    private Expr mod() {
-        Expr expr = term();
-
-        while (match(MOD)) {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
+    private Expr compoundAssignment(Expr target) {
+        Token operator = previous();
+        Expr value = parsePrecedence(Precedence.TERNARY);
+        if (target instanceof Expr.Variable) {
+            Token name = ((Expr.Variable)target).name;
+            return new Expr.Assign(name, new Expr.Binary(
+                    target, compoundAssignMap.get(operator.type), value));
         }
-
-        return expr;
+        error(operator, "Invalid assignment target.");
+        return target;
     }
 
-    private Expr term() {
-        Expr expr = factor();
+    private Expr ternary(Expr condition) {
+        Expr t_branch = parsePrecedence(Precedence.TERNARY);
+        consume(COLON, "Expect colon.");
+        Expr f_branch = parsePrecedence(Precedence.TERNARY);
+        return new Expr.Ternary(condition, t_branch, f_branch);
+    }
 
-        while (match(MINUS, PLUS)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
-        }
+    private Expr logical(Expr left) {
+        Token operator = previous();
+        Expr right = parsePrecedence(
+                rules[operator.type.ordinal()].precedence().next());
+        return new Expr.Logical(left, operator, right);
+    }
 
-        return expr;
+    private Expr binary(Expr left) {
+        Token operator = previous();
+        Expr right = parsePrecedence(
+                rules[operator.type.ordinal()].precedence().next());
+        return new Expr.Binary(left, operator, right);
     }
 
-    private Expr factor() {
-        Expr expr = unary();
+    private Expr unary() {
+        Token operator = previous();
+        Expr right = parsePrecedence(Precedence.UNARY);
+        return new Expr.Unary(operator, right);
+    }
 
-        while (match(SLASH, STAR)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
-        }
+    // A binary operator with nothing on its left. The operand on its
+    // right is parsed and dropped so that parsing can carry on.
+    private Expr missingOperand() {
+        TokenType operator = buffer.type(previous);
+        parsePrecedence(rightOperand(operator));
+        missingOperandError(operator);
+        return null;
+    }
 
-        return expr;
+    private static Precedence rightOperand(TokenType operator) {
+        return switch (operator) {
+            case EQUAL_EQUAL, BANG_EQUAL -> Precedence.COMPARISON;
+            case PLUS -> Precedence.FACTOR;
+            case STAR, SLASH -> Precedence.UNARY;
+            default -> Precedence.TERM;
+        };
     }
 
-    private Expr unary() {
-        if (match(BANG, MINUS)) {
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
-        }
-        else {
-            String operator = peek().lexeme;
-            if (match(EQUAL_EQUAL, BANG_EQUAL)) {
-                comparison();
-            } else if (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-                term();
-            } else if (match(PLUS)) {
-                factor();
-            } else if (match(STAR, SLASH)) {
-                unary();
-            } else {
-                return call();
-            }
-            String msg = "Missing left operand for '" + operator + "'";
-            Lox.error(previous().line, msg);
-            return null;
-        }
+    private void missingOperandError(TokenType operator) {
+        String msg = "Missing left operand for '" +
+                Scanner.fixedLexeme(operator) + "'";
+        reporter.error(buffer.line(previous), msg);
     }
 
     private Expr finishCall(Expr callee) {
@@ -469,65 +807,51 @@ class Parser {
             do {
                 if (arguments.size() >= 255)
                     error(peek(), "Can't have more than 255 arguments.");
-                arguments.add(assignment());
+                arguments.add(parsePrecedence(Precedence.ASSIGNMENT));
             } while (match(COMMA));
         }
 
-        Token paren = consume(RIGHT_PAREN,
-                "Expect ')' after arguments.");
+        consume(RIGHT_PAREN, "Expect ')' after arguments.");
+        Token paren = previous();
 
         return new Expr.Call(callee, paren, arguments);
     }
 
-    private Expr call() {
-        Expr expr = primary();
-
-        while (true) {
-            if (match(LEFT_PAREN)) {
-                expr = finishCall(expr);
-            } else if (match(DOT)) {
-                Token name = consume(IDENTIFIER,
-                        "Expect property name after '.'.");
-                expr = new Expr.Get(expr, name);
-            } else {
-                break;
-            }
-        }
-
-        return expr;
+    private Expr get(Expr object) {
+        consume(IDENTIFIER, "Expect property name after '.'.");
+        Token name = previous();
+        return new Expr.Get(object, name);
     }
 
-    private Expr primary() {
-        if (match(FALSE)) return new Expr.Literal(false);
-        if (match(TRUE)) return new Expr.Literal(true);
-        if (match(NIL)) return new Expr.Literal(null);
-
-        if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
-        }
-
-        if (match(THIS)) return new Expr.This(previous());
-        if (match(SUPER)) {
-            Token keyword = previous();
-            consume(DOT, "Expect '.' after 'super'.");
-            Token method = consume(IDENTIFIER,
-                    "Expect superclass method name.");
-            return new Expr.Super(keyword, method);
-        }
+    private Expr literal() {
+        return switch (buffer.type(previous)) {
+            case FALSE -> new Expr.Literal(false);
+            case TRUE -> new Expr.Literal(true);
+            case NIL -> new Expr.Literal(null);
+            default -> new Expr.Literal(buffer.literal(previous));
+        };
+    }
 
-        if (match(IDENTIFIER)) {
-            return new Expr.Variable(previous());
-        }
+    private Expr this_() {
+        return new Expr.This(previous());
+    }
 
-        if (match(FUN)) return lambda();
+    private Expr super_() {
+        Token keyword = previous();
+        consume(DOT, "Expect '.' after 'super'.");
+        consume(IDENTIFIER, "Expect superclass method name.");
+        Token method = previous();
+        return new Expr.Super(keyword, method);
+    }
 
-        if (match(LEFT_PAREN)) {
-            Expr expr = expression();
-            consume(RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(expr);
-        }
+    private Expr variable() {
+        return new Expr.Variable(previous());
+    }
 
-        throw error(peek(), "Expect expression.");
+    private Expr grouping() {
+        Expr expr = expression();
+        consume(RIGHT_PAREN, "Expect ')' after expression.");
+        return new Expr.Grouping(expr);
     }
 
     private Expr lambda() {
@@ -538,47 +862,58 @@ class Parser {
         return new Expr.Lambda(parameters, body);
     }
 
-    private boolean match(TokenType... types) {
-        for (TokenType type : types) {
-            if (check(type)) {
-                advance();
-                return true;
-            }
+    private boolean match(TokenType type) {
+        if (check(type)) {
+            advance();
+            return true;
         }
 
         return false;
     }
 
-    private Token consume(TokenType type, String message) {
-        if (check(type)) return advance();
+    private boolean match(TokenType first, TokenType second) {
+        return match(first) || match(second);
+    }
+
+    private void consume(TokenType type, String message) {
+        if (check(type)) {
+            advance();
+            return;
+        }
 
         throw error(peek(), message);
     }
 
     private boolean check(TokenType type) {
         if (isAtEnd()) return false;
-        return peek().type == type;
+        return buffer.type(current) == type;
     }
 
-    private Token advance() {
-        if (!isAtEnd()) current++;
-        return previous();
+    private void advance() {
+        if (!isAtEnd()) {
+            previous = current;
+            if (buffer.size() == BUFFER_ROWS) {
+                buffer.discardBefore(previous);
+                previous = 0;
+            }
+            current = tokens.next(buffer);
+        }
     }
 
     private boolean isAtEnd() {
-        return peek().type == EOF;
+        return buffer.type(current) == EOF;
     }
 
     private Token peek() {
-        return tokens.get(current);
+        return buffer.token(current);
     }
 
     private Token previous() {
-        return tokens.get(current-1);
+        return buffer.token(previous);
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        reporter.error(token, message);
         return new ParseError();
     }
 
@@ -586,9 +921,9 @@ class Parser {
         advance();
 
         while (!isAtEnd()) {
-            if (previous().type == SEMICOLON) return;
+            if (buffer.type(previous) == SEMICOLON) return;
 
-            switch (peek().type) {
+            switch (buffer.type(current)) {
             case CLASS:
             case FUN:
             case VAR:
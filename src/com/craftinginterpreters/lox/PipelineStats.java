@@ -0,0 +1,154 @@
+package com.craftinginterpreters.lox;
+
+import com.craftinginterpreters.utils.Tuple;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Runs a file one phase at a time for `jlox --stats`, measuring the wall
+// time and the bytes allocated by each, and reports them with the size
+// of what each phase produced. Allocation is counted on the running
+// thread only, so the phases are run on it: the sequential scanner
+// rather than the parallel one, every function body compiled up front
+// rather than on its first call, and the .loxc cache bypassed. Fibers'
+// allocations aren't counted.
+class PipelineStats {
+    private record Phase(String name, long nanos, long bytes) {}
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final List<Phase> phases = new ArrayList<>();
+    private long start;
+    private long allocatedAtStart;
+
+    private int tokens = -1;
+    private NodeCounter nodes;
+    private int locals = -1;
+    private long peakDepth = -1;
+
+    static void run(Path path, Interpreter interpreter, boolean json,
+                    PrintStream out) throws IOException {
+        PipelineStats stats = new PipelineStats();
+        stats.measure(Files.readString(path), interpreter);
+        if (json) {
+            stats.printJson(out);
+        } else {
+            stats.print(out);
+        }
+    }
+
+    private void measure(String source, Interpreter interpreter) {
+        ErrorReporter reporter = interpreter.reporter;
+
+        begin();
+        List<Token> scanned = new Scanner(source, reporter).scanTokens();
+        end("scan");
+        tokens = scanned.size();
+
+        begin();
+        List<Stmt> statements =
+                new Parser(TokenStream.of(scanned), reporter, false).parse();
+        end("parse");
+        if (reporter.hadError) return;
+        nodes = new NodeCounter(statements);
+
+        begin();
+        Resolver resolver = new Resolver(reporter);
+        resolver.resolve(statements);
+        Map<Expr, Tuple<Integer, Integer>> resolved = resolver.locals();
+        end("resolve");
+        if (reporter.hadError) return;
+        locals = resolved.size();
+
+        if (Metrics.enabled) Metrics.peakDepth.reset();
+        begin();
+        interpreter.interpret(new LoxScript(List.copyOf(statements), resolved));
+        end("execute");
+        if (Metrics.enabled) peakDepth = Metrics.peakDepth.get();
+    }
+
+    private void begin() {
+        allocatedAtStart = threads.getCurrentThreadAllocatedBytes();
+        start = System.nanoTime();
+    }
+
+    private void end(String phase) {
+        long nanos = System.nanoTime() - start;
+        long bytes = threads.getCurrentThreadAllocatedBytes() - allocatedAtStart;
+        phases.add(new Phase(phase, nanos, bytes));
+    }
+
+    private void print(PrintStream out) {
+        long totalNanos = 0;
+        long totalBytes = 0;
+        out.printf("%-10s %12s %14s%n", "phase", "time ms", "allocated MB");
+        for (Phase phase : phases) {
+            out.printf(Locale.ROOT, "%-10s %12.2f %14.2f%n", phase.name(),
+                    phase.nanos() / 1e6, phase.bytes() / 1e6);
+            totalNanos += phase.nanos();
+            totalBytes += phase.bytes();
+        }
+        out.printf(Locale.ROOT, "%-10s %12.2f %14.2f%n", "total",
+                totalNanos / 1e6, totalBytes / 1e6);
+        out.println();
+
+        if (tokens >= 0) out.println("tokens: " + tokens);
+        if (nodes != null) {
+            out.println("AST nodes: " + nodes.total);
+            for (Map.Entry<String, Integer> entry : nodes.counts.entrySet()) {
+                out.printf("  %-12s %d%n", entry.getKey(), entry.getValue());
+            }
+        }
+        if (locals >= 0) out.println("resolved locals: " + locals);
+        if (peakDepth >= 0) out.println("peak environment depth: " + peakDepth);
+    }
+
+    private void printJson(PrintStream out) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        Map<String, Object> byPhase = new LinkedHashMap<>();
+        for (Phase phase : phases) {
+            Map<String, Object> measured = new LinkedHashMap<>();
+            measured.put("nanos", phase.nanos());
+            measured.put("allocatedBytes", phase.bytes());
+            byPhase.put(phase.name(), measured);
+        }
+        report.put("phases", byPhase);
+        if (tokens >= 0) report.put("tokens", tokens);
+        if (nodes != null) {
+            report.put("nodes", nodes.total);
+            report.put("nodesByType", nodes.counts);
+        }
+        if (locals >= 0) report.put("resolvedLocals", locals);
+        if (peakDepth >= 0) report.put("peakEnvironmentDepth", peakDepth);
+
+        StringBuilder json = new StringBuilder();
+        writeJson(json, report);
+        out.println(json);
+    }
+
+    // Only what the report holds: maps with string keys, and numbers.
+    private static void writeJson(StringBuilder json, Object value) {
+        if (value instanceof Map<?, ?> map) {
+            json.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (!first) json.append(',');
+                first = false;
+                json.append('"').append(entry.getKey()).append("\":");
+                writeJson(json, entry.getValue());
+            }
+            json.append('}');
+        } else {
+            json.append(value);
+        }
+    }
+}
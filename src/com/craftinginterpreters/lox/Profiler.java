@@ -0,0 +1,155 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Wall-clock sampling profiler for Lox code. Every thread running Lox
+// functions keeps a shadow stack of them, and a background thread
+// copies each stack every -Dlox.profile.interval milliseconds (default
+// 1). A frame is a function name and the line it last reached: its
+// declaration until it makes a call, then the line of that call. At
+// exit the samples are written to the file named by -Dlox.profile as
+// collapsed stacks ("main:12;fib:3;fib:5 42"), which flamegraph.pl and
+// speedscope read as they are. Without -Dlox.profile the hooks are
+// behind a constant false and cost nothing.
+final class Profiler {
+    static final boolean enabled = System.getProperty("lox.profile") != null;
+
+    // A thread's frames, written only by that thread. The sampler reads
+    // them without locking, so it may see a frame being pushed or a
+    // stack being grown; at worst that mislabels one sample.
+    static final class Stack {
+        final Thread thread;
+        String[] names = new String[64];
+        int[] lines = new int[64];
+        volatile int depth = 1;
+
+        Stack(Thread thread) {
+            this.thread = thread;
+            names[0] = thread.getName().isEmpty() ? "thread" : thread.getName();
+        }
+
+        void push(String name, int line) {
+            int top = depth;
+            if (top == names.length) {
+                lines = Arrays.copyOf(lines, top * 2);
+                names = Arrays.copyOf(names, top * 2);
+            }
+            lines[top] = line;
+            names[top] = name;
+            depth = top + 1;
+        }
+
+        void pop() {
+            depth--;
+        }
+
+        void at(int line) {
+            lines[depth - 1] = line;
+        }
+    }
+
+    private static final Set<Stack> stacks = ConcurrentHashMap.newKeySet();
+    private static final ThreadLocal<Stack> current = ThreadLocal.withInitial(() -> {
+        Stack stack = new Stack(Thread.currentThread());
+        stacks.add(stack);
+        return stack;
+    });
+
+    // Sample counts by collapsed stack, touched only by the sampler.
+    private static final Map<String, Integer> samples = new HashMap<>();
+    private static Thread sampler;
+
+    static {
+        if (enabled) start();
+    }
+
+    private Profiler() {}
+
+    // A call is about to be made from the given line.
+    static void at(int line) {
+        current.get().at(line);
+    }
+
+    // Pushes a frame for a function declared at name, or for a lambda
+    // when name is null. The caller pops it when the call returns.
+    static Stack enter(Token name) {
+        Stack stack = current.get();
+        if (name == null) {
+            stack.push("<lambda>", stack.lines[stack.depth - 1]);
+        } else {
+            stack.push(name.lexeme(), name.line());
+        }
+        return stack;
+    }
+
+    private static void start() {
+        long interval = Long.getLong("lox.profile.interval", 1);
+        Path out = Paths.get(System.getProperty("lox.profile"));
+
+        sampler = new Thread(() -> {
+            StringBuilder key = new StringBuilder();
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(interval);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                for (Stack stack : stacks) {
+                    if (!stack.thread.isAlive()) {
+                        stacks.remove(stack);
+                    } else if (stack.depth > 1) {
+                        sample(stack, key);
+                    }
+                }
+            }
+        }, "lox-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            sampler.interrupt();
+            try {
+                sampler.join();
+                write(out);
+            } catch (InterruptedException | IOException e) {
+                System.err.println("Could not write profile to " + out +
+                        ": " + e.getMessage());
+            }
+        }));
+    }
+
+    private static void sample(Stack stack, StringBuilder key) {
+        int depth = stack.depth;
+        String[] names = stack.names;
+        int[] lines = stack.lines;
+        depth = Math.min(depth, Math.min(names.length, lines.length));
+
+        key.setLength(0);
+        for (int i = 0; i < depth; i++) {
+            if (names[i] == null) return;
+            if (i > 0) key.append(';');
+            key.append(names[i]);
+            // A fiber's root, and its lambdas, have no line until a call.
+            if (lines[i] > 0) key.append(':').append(lines[i]);
+        }
+        samples.merge(key.toString(), 1, Integer::sum);
+    }
+
+    private static void write(Path out) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(out))) {
+            samples.entrySet().stream()
+                    .sorted(Map.Entry.comparingByKey())
+                    .forEach(entry -> writer.println(
+                            entry.getKey() + " " + entry.getValue()));
+        }
+    }
+}
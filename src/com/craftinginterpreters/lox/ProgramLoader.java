@@ -0,0 +1,123 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.ref.SoftReference;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Compiles a program's files ahead of time, each on its own virtual
+// thread, since reading a file or its cache entry blocks; the scanning
+// itself still fans out over the common fork/join pool. Once a file is
+// parsed, the files it loads or imports are submitted in turn, so the
+// whole file set is scanned, parsed and resolved in parallel. Execution
+// still happens in program order on the interpreter's thread; load()
+// just picks up the finished script.
+class ProgramLoader {
+    private record Compiled(byte[] hash, LoxScript script,
+                            ErrorReporter reporter, String output) {}
+
+    private static final ExecutorService prefetcher =
+            Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name("lox-prefetch").factory());
+
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+    // A file behind a branch the program never takes is never loaded,
+    // so its script is only softly held, and dropped by clear().
+    private final Map<String, CompletableFuture<SoftReference<Compiled>>> compiled =
+            new ConcurrentHashMap<>();
+
+    // Relative imports in the file are resolved next to importBase: the
+    // file itself for a script or module, the script that loaded it for
+    // a loadFile() file, or the working directory when null.
+    void prefetch(Path path, Path importBase) {
+        String key = key(path);
+        if (!seen.add(key)) return;
+        compiled.put(key, CompletableFuture.supplyAsync(
+                () -> new SoftReference<>(compile(path, importBase)),
+                prefetcher));
+    }
+
+    // Drops whatever was prefetched but not loaded yet, and forgets what
+    // was prefetched, so a later prefetch() of the same files runs again.
+    void clear() {
+        for (CompletableFuture<SoftReference<Compiled>> future : compiled.values()) {
+            future.cancel(false);
+        }
+        compiled.clear();
+        seen.clear();
+    }
+
+    LoxScript load(Path path, ErrorReporter reporter) throws IOException {
+        Utf8Source source = Utf8Source.map(path);
+        return load(path, source, ScriptCache.hash(source), reporter);
+    }
+
+    LoxScript load(Path path, Utf8Source source, byte[] hash,
+                   ErrorReporter reporter) {
+        CompletableFuture<SoftReference<Compiled>> future = compiled.remove(key(path));
+        if (future != null) {
+            Compiled result = finished(future);
+            // The file may have changed since it was prefetched.
+            if (result != null && Arrays.equals(result.hash(), hash)) {
+                reporter.replay(result.output(), result.reporter());
+                return result.script();
+            }
+        }
+        return ScriptCache.load(path, source, hash, reporter);
+    }
+
+    // Null if the prefetch was cancelled, failed or was reclaimed. A
+    // failure is then met again by compiling on the spot, and reported
+    // as it would have been without prefetching.
+    private static Compiled finished(CompletableFuture<SoftReference<Compiled>> future) {
+        try {
+            return future.join().get();
+        } catch (CancellationException | CompletionException e) {
+            return null;
+        }
+    }
+
+    private Compiled compile(Path path, Path importBase) {
+        Utf8Source source;
+        try {
+            source = Utf8Source.map(path);
+        } catch (IOException e) {
+            // Reported when the program actually gets to this file.
+            return null;
+        }
+        byte[] hash = ScriptCache.hash(source);
+
+        // Diagnostics are held back until the file is actually used.
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ErrorReporter reporter = new ErrorReporter(new PrintStream(output, true));
+        LoxScript script = ScriptCache.load(path, source, hash, reporter);
+
+        if (script != null) {
+            DependencyScanner dependencies = new DependencyScanner(script.statements);
+            for (String file : dependencies.loadedFiles) {
+                prefetch(Paths.get(file), importBase);
+            }
+            for (String module : dependencies.imports) {
+                Path imported = LoxModule.resolve(importBase, module);
+                prefetch(imported, imported);
+            }
+        }
+
+        return new Compiled(hash, script, reporter, output.toString());
+    }
+
+    private static String key(Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+}
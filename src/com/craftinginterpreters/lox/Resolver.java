@@ -1,15 +1,33 @@
 package com.craftinginterpreters.lox;
 
+import com.craftinginterpreters.utils.Tuple;
+
 import java.util.*;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-
-    // 1st 'boolean' tracks whether the symbol has been defined.
-    // 2nd tracks usage.
-    // 3rd integer is for line #.
-    // 4th integer is for index in Environment instance.
-    private final Stack<Map<String, List<Integer>>> scopes = new Stack<>();
+    private final ErrorReporter reporter;
+    private final Map<Expr, Tuple<Integer, Integer>> locals = new HashMap<>();
+
+    // Local scopes are kept flat. Names are interned to symbols, and
+    // each declaration in an open scope is a row in the binding arrays,
+    // the rows of a scope starting at scopeStarts[its depth]. A symbol
+    // points at its innermost binding and each binding at the one it
+    // shadows, so looking up a name doesn't walk the scopes and neither
+    // lookups nor updates allocate.
+    private final Map<String, Integer> symbols = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private int[] innermost = new int[64];  // Binding by symbol, or -1.
+    private int[] scopeStarts = new int[16];
+    private int depth = 0;
+
+    private int bindings = 0;
+    private int[] bindingSymbols = new int[64];
+    private int[] bindingDepths = new int[64];
+    private int[] shadowed = new int[64];
+    private int[] lines = new int[64];
+    private int[] slots = new int[64];  // Index in the Environment.
+    private boolean[] defined = new boolean[64];
+    private boolean[] used = new boolean[64];
 
     private FunctionType currentFunction = FunctionType.NONE;
     private enum FunctionType {
@@ -29,44 +47,144 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private final Map<String, Map<String, Integer>> traits = new HashMap<>();
+    // What LoxDocument needs to know to reuse a declaration's resolution:
+    // the traits it declares and whether it looked any up.
+    final Map<String, Map<String, Integer>> declaredTraits = new HashMap<>();
+    boolean usesTraits = false;
+
+    Resolver(ErrorReporter reporter) {
+        this.reporter = reporter;
+    }
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    // Starts out knowing the traits that earlier code declared.
+    Resolver(ErrorReporter reporter, Map<String, Map<String, Integer>> traits) {
+        this.reporter = reporter;
+        this.traits.putAll(traits);
+    }
+
+    Map<Expr, Tuple<Integer, Integer>> locals() {
+        return locals;
+    }
+
+    // What a DeferredBody needs to be resolved later as if it were now:
+    // the function, the names in each scope around it and the known
+    // traits. Only top-level bodies are deferred, and the only locals
+    // around those are this and super.
+    record Context(List<Token> params, FunctionType function,
+                   ClassType currentClass, List<List<String>> scopes,
+                   Map<String, Map<String, Integer>> traits) {}
+
+    // Returns the resolution of the body alone.
+    static Map<Expr, Tuple<Integer, Integer>> resolveBody(
+            Context context, List<Stmt> body, ErrorReporter reporter) {
+        Resolver resolver = new Resolver(reporter, context.traits);
+        resolver.currentClass = context.currentClass;
+        for (List<String> scope : context.scopes) {
+            resolver.beginScope();
+            for (String name : scope) resolver.declareImplicit(name);
+        }
+        resolver.resolveFunction(context.params, body, context.function);
+        return resolver.locals;
     }
 
     private void beginScope() {
-        scopes.push(new HashMap<>());
+        if (depth == scopeStarts.length) {
+            scopeStarts = Arrays.copyOf(scopeStarts, depth * 2);
+        }
+        scopeStarts[depth++] = bindings;
     }
 
     private void endScope() {
-        for (Map.Entry<String, List<Integer>> entry : scopes.peek().entrySet()) {
-            if (entry.getValue().get(1) == 0) {
-                Lox.warning(entry.getValue().get(2),
-                        "Unused variable '" + entry.getKey() + "'.");
+        int start = scopeStarts[--depth];
+        for (int i = start; i < bindings; i++) {
+            if (!used[i]) {
+                reporter.warning(lines[i],
+                        "Unused variable '" + names.get(bindingSymbols[i]) + "'.");
             }
         }
-        scopes.pop();
+        for (int i = bindings - 1; i >= start; i--) {
+            innermost[bindingSymbols[i]] = shadowed[i];
+        }
+        bindings = start;
     }
 
     private void declare(Token name) {
-        if (scopes.isEmpty()) return;
+        if (depth == 0) return;
 
-        Map<String, List<Integer>> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme)) {
-            Lox.error(name,
+        int binding = bind(name.lexeme());
+        if (binding == -1) {
+            reporter.error(name,
                     "Already a variable with this name in this scope.");
+            binding = lookup(name.lexeme());
         }
-
-        scope.put(name.lexeme, List.of(0, 0, name.line, scope.size()));
+        defined[binding] = false;
+        used[binding] = false;
+        lines[binding] = name.line();
     }
 
     private void define(Token name) {
-        if (scopes.isEmpty()) return;
-        scopes.peek().compute(
-            name.lexeme, (k, x) -> {
-                assert x != null;
-                return List.of(1, x.get(1), x.get(2), x.get(3));
-            });
+        if (depth == 0) return;
+        defined[lookup(name.lexeme())] = true;
+    }
+
+    // Declares this or super, which are never reported as unused.
+    private void declareImplicit(String name) {
+        int binding = bind(name);
+        defined[binding] = true;
+        used[binding] = true;
+    }
+
+    // Adds a binding for name to the innermost scope and returns it, or
+    // returns -1 if the scope already has one. Either way the binding
+    // gets the next slot, as a redeclared variable always has.
+    private int bind(String name) {
+        int symbol = intern(name);
+        int scope = depth - 1;
+        int slot = bindings - scopeStarts[scope];
+        int binding = innermost[symbol];
+        if (binding != -1 && bindingDepths[binding] == scope) {
+            slots[binding] = slot;
+            return -1;
+        }
+
+        if (bindings == slots.length) {
+            int capacity = bindings * 2;
+            bindingSymbols = Arrays.copyOf(bindingSymbols, capacity);
+            bindingDepths = Arrays.copyOf(bindingDepths, capacity);
+            shadowed = Arrays.copyOf(shadowed, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            slots = Arrays.copyOf(slots, capacity);
+            defined = Arrays.copyOf(defined, capacity);
+            used = Arrays.copyOf(used, capacity);
+        }
+        binding = bindings++;
+        bindingSymbols[binding] = symbol;
+        bindingDepths[binding] = scope;
+        shadowed[binding] = innermost[symbol];
+        lines[binding] = 0;
+        slots[binding] = slot;
+        innermost[symbol] = binding;
+        return binding;
+    }
+
+    private int intern(String name) {
+        Integer symbol = symbols.get(name);
+        if (symbol != null) return symbol;
+
+        int id = names.size();
+        symbols.put(name, id);
+        names.add(name);
+        if (id == innermost.length) {
+            innermost = Arrays.copyOf(innermost, id * 2);
+        }
+        innermost[id] = -1;
+        return id;
+    }
+
+    // The innermost binding of name, or -1 if it isn't a local.
+    private int lookup(String name) {
+        Integer symbol = symbols.get(name);
+        return symbol == null ? -1 : innermost[symbol];
     }
 
     void resolve(List<Stmt> statements) {
@@ -84,32 +202,51 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private void resolveLocal(Expr expr, Token name) {
-        for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                List<Integer> x = scopes.get(i).get(name.lexeme);
-                interpreter.resolve(expr,
-                        scopes.size() - 1 - i, x.get(3));
-                scopes.get(i).replace(name.lexeme,
-                        List.of(x.get(0), 1, x.get(2), x.get(3)));
-                return;
-            }
-        }
+        int binding = lookup(name.lexeme());
+        if (binding == -1) return;
+
+        locals.put(expr, new Tuple<>(
+                depth - 1 - bindingDepths[binding], slots[binding]));
+        used[binding] = true;
     }
 
     private void resolveFunction(Stmt.Function function, FunctionType type) {
+        if (function.body instanceof DeferredBody body) {
+            body.resolvedIn(new Context(function.params, type, currentClass,
+                    openScopes(), Map.copyOf(traits)));
+            return;
+        }
+        resolveFunction(function.params, function.body, type);
+    }
+
+    private void resolveFunction(List<Token> params, List<Stmt> body,
+                                 FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
 
         beginScope();
-        for (Token param : function.params) {
+        for (Token param : params) {
             declare(param);
             define(param);
         }
-        resolve(function.body);
+        resolve(body);
         endScope();
         currentFunction = enclosingFunction;
     }
 
+    private List<List<String>> openScopes() {
+        List<List<String>> scopes = new ArrayList<>(depth);
+        for (int scope = 0; scope < depth; scope++) {
+            int end = scope + 1 < depth ? scopeStarts[scope + 1] : bindings;
+            List<String> scopeNames = new ArrayList<>();
+            for (int i = scopeStarts[scope]; i < end; i++) {
+                scopeNames.add(names.get(bindingSymbols[i]));
+            }
+            scopes.add(scopeNames);
+        }
+        return scopes;
+    }
+
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
@@ -181,10 +318,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword,
+            reporter.error(expr.keyword,
                     "Can't use 'super' outside of a class.");
         } else if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword,
+            reporter.error(expr.keyword,
                     "Can't use 'super' in a class with no superclass.");
         }
 
@@ -203,11 +340,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword,
+            reporter.error(expr.keyword,
                     "Can't use 'this' outside of a class.");
             return null;
         } else if (currentClass == ClassType.STATIC_METHOD_BODY) {
-            Lox.error(expr.keyword,
+            reporter.error(expr.keyword,
                     "Can't use 'this' within a static method.");
             return null;
         }
@@ -224,9 +361,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().containsKey(expr.name.lexeme) &&
-                scopes.peek().get(expr.name.lexeme).get(0) == 0) {
-            Lox.error(expr.name,
+        int binding = lookup(expr.name.lexeme());
+        if (binding != -1 && bindingDepths[binding] == depth - 1 &&
+                !defined[binding]) {
+            reporter.error(expr.name,
                     "Can't read local variable in its own initializer.");
         }
 
@@ -251,28 +389,29 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         define(stmt.name);
 
         if (stmt.superclass != null) {
-            if (stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-                Lox.error(stmt.superclass.name,
+            if (stmt.name.lexeme().equals(stmt.superclass.name.lexeme())) {
+                reporter.error(stmt.superclass.name,
                         "A class can't inherit from itself.");
             }
             currentClass = ClassType.SUBCLASS;
             resolve(stmt.superclass);
             beginScope();
-            scopes.peek().put("super", List.of(1, 1, 0, 0));
+            declareImplicit("super");
         }
 
         beginScope();
-        scopes.peek().put("this", List.of(1, 1, 0, 0));
+        declareImplicit("this");
 
         Map<String, Map<String, Integer>> traitsToImplement = new HashMap<>();
         Map<String, Integer> methodsToImplement = new HashMap<>();
 
         for (Expr.Variable trait : stmt.traits) {
-            if (traits.containsKey(trait.name.lexeme)) {
-                traitsToImplement.put(trait.name.lexeme, traits.get(trait.name.lexeme));
+            usesTraits = true;
+            if (traits.containsKey(trait.name.lexeme())) {
+                traitsToImplement.put(trait.name.lexeme(), traits.get(trait.name.lexeme()));
             } else {
-                Lox.error(stmt.name,
-                        "Undefined trait: '" + trait.name.lexeme + "'.");
+                reporter.error(stmt.name,
+                        "Undefined trait: '" + trait.name.lexeme() + "'.");
             }
         }
 
@@ -282,21 +421,21 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         for (Map.Entry<Stmt.Function, Boolean> entry : stmt.methods.entrySet()) {
             FunctionType declaration;
-            if (entry.getKey().name.lexeme.equals("init")) {
+            if (entry.getKey().name.lexeme().equals("init")) {
                 declaration = FunctionType.INITIALIZER;
             } else {
                 declaration = FunctionType.METHOD;
-                if (methodsToImplement.containsKey(entry.getKey().name.lexeme)) {
-                    int expectedArity = methodsToImplement.get(entry.getKey().name.lexeme);
+                if (methodsToImplement.containsKey(entry.getKey().name.lexeme())) {
+                    int expectedArity = methodsToImplement.get(entry.getKey().name.lexeme());
                     int actualArity = entry.getKey().params.size();
                     if (expectedArity != actualArity) {
-                        Lox.error(stmt.name,
-                                "Inherited method '" + stmt.name.lexeme
+                        reporter.error(stmt.name,
+                                "Inherited method '" + stmt.name.lexeme()
                                         + "' isn't implemented with correct parity." +
                                         " (Expected: " + expectedArity
                                         + "; Actual: " + actualArity  + ")");
                     }
-                    methodsToImplement.remove(entry.getKey().name.lexeme);
+                    methodsToImplement.remove(entry.getKey().name.lexeme());
                 }
             }
 
@@ -315,7 +454,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
                 }
                 i++;
             }
-            Lox.error(stmt.name,
+            reporter.error(stmt.name,
                     "Trait methods " + unimplementedMethods +
                             " not all properly implemented.");
         }
@@ -376,12 +515,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Can't return from top-level code.");
+            reporter.error(stmt.keyword, "Can't return from top-level code.");
         }
 
         if (stmt.value != null) {
             if (currentFunction == FunctionType.INITIALIZER) {
-                Lox.error(stmt.keyword,
+                reporter.error(stmt.keyword,
                         "Can't return a value from an initializer.");
             }
             resolve(stmt.value);
@@ -398,7 +537,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         define(stmt.name);
 
         beginScope();
-        scopes.peek().put("this", List.of(1, 1, 0, 0));
+        declareImplicit("this");
 
         for (Stmt.Function method : stmt.defaultImpls) {
             resolveFunction(method, FunctionType.METHOD);
@@ -407,10 +546,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         Map<String, Integer> methods = new HashMap<>();
         for (Map.Entry<Token, Integer> method : stmt.methods.entrySet()) {
-            methods.put(method.getKey().lexeme, method.getValue());
+            methods.put(method.getKey().lexeme(), method.getValue());
         }
 
-        traits.put(stmt.name.lexeme, methods);
+        traits.put(stmt.name.lexeme(), methods);
+        declaredTraits.put(stmt.name.lexeme(), methods);
 
         currentClass = enclosingClass;
         return null;
@@ -1,7 +1,9 @@
 package com.craftinginterpreters.lox;
 
 class Return extends RuntimeException {
-    final Object value;
+    private static final long serialVersionUID = 1L;
+
+    final transient Object value;
 
     Return(Object value) {
         super(null, null, false, false);
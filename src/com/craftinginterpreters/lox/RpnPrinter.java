@@ -10,7 +10,7 @@ class RpnPrinter implements Expr.Visitor<String> {
     public String visitBinaryExpr(Expr.Binary expr) {
         return expr.left.accept(this) + ' '
                 + expr.right.accept(this) + ' '
-                + expr.operator.lexeme;
+                + expr.operator.lexeme();
     }
 
     @Override
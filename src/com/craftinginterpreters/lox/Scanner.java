@@ -1,58 +1,183 @@
 package com.craftinginterpreters.lox;
 
+import java.io.Reader;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 
-class Scanner {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+// Produces tokens on demand: the Parser pulls them one at a time through
+// next(), so the token list of a whole file never exists. The input is
+// either a CharSequence held in memory or a Reader read through a
+// CharWindow.
+//
+// Tokens point back into the source by offset and only slice out their
+// lexeme when asked, so punctuation, keywords and most literals never
+// allocate a String for it. Scanning into a TokenBuffer doesn't even
+// create the Token.
+class Scanner implements TokenStream {
+    private final CharSequence source;
+    private final CharWindow window;
+    // Set when comments and strings can be skipped eight bytes at a time.
+    private final Utf8Source wide;
+    private final ErrorReporter reporter;
+    // The token scanToken() found, if any.
+    private TokenType pending = null;
+    private Object pendingLiteral = null;
+    private String pendingLexeme = null;
+    private Token eof = null;
     private int start = 0;
     private int current = 0;
     private int line = 1;
-    private static final Map<String, TokenType> keywords;
+    // No lexeme starts at or after this; see scanChunk().
+    private final int limit;
+    // The lexeme of every token type that only has one, by ordinal.
+    private static final String[] fixedLexemes =
+            new String[TokenType.values().length];
 
     static {
-        keywords = new HashMap<>();
-        keywords.put("and",      AND);
-        keywords.put("break",    BREAK);
-        keywords.put("class",    CLASS);
-        keywords.put("continue", CONTINUE);
-        keywords.put("default",  DEFAULT);
-        keywords.put("do",       DO);
-        keywords.put("else",     ELSE);
-        keywords.put("false",    FALSE);
-        keywords.put("for",      FOR);
-        keywords.put("fun",      FUN);
-        keywords.put("if",       IF);
-        keywords.put("nil",      NIL);
-        keywords.put("or",       OR);
-        keywords.put("print",    PRINT);
-        keywords.put("return",   RETURN);
-        keywords.put("super",    SUPER);
-        keywords.put("this",     THIS);
-        keywords.put("trait",    TRAIT);
-        keywords.put("true",     TRUE);
-        keywords.put("var",      VAR);
-        keywords.put("while",    WHILE);
-    }
-
-    Scanner(String source) {
+        fixLexeme(LEFT_PAREN, "(");
+        fixLexeme(RIGHT_PAREN, ")");
+        fixLexeme(LEFT_BRACE, "{");
+        fixLexeme(RIGHT_BRACE, "}");
+        fixLexeme(COMMA, ",");
+        fixLexeme(DOT, ".");
+        fixLexeme(MINUS, "-");
+        fixLexeme(PLUS, "+");
+        fixLexeme(SEMICOLON, ";");
+        fixLexeme(SLASH, "/");
+        fixLexeme(STAR, "*");
+        fixLexeme(COLON, ":");
+        fixLexeme(INTERR, "?");
+        fixLexeme(MOD, "%");
+        fixLexeme(BANG, "!");
+        fixLexeme(BANG_EQUAL, "!=");
+        fixLexeme(EQUAL, "=");
+        fixLexeme(EQUAL_EQUAL, "==");
+        fixLexeme(GREATER, ">");
+        fixLexeme(GREATER_EQUAL, ">=");
+        fixLexeme(LESS, "<");
+        fixLexeme(LESS_EQUAL, "<=");
+        fixLexeme(MINUS_EQUAL, "-=");
+        fixLexeme(PLUS_EQUAL, "+=");
+        fixLexeme(SLASH_EQUAL, "/=");
+        fixLexeme(STAR_EQUAL, "*=");
+        // Keywords are spelled like their token type.
+        for (TokenType type : TokenType.values()) {
+            if (type.compareTo(AND) >= 0 && type != EOF) {
+                fixLexeme(type, type.name().toLowerCase());
+            }
+        }
+    }
+
+    private static void fixLexeme(TokenType type, String lexeme) {
+        fixedLexemes[type.ordinal()] = lexeme;
+    }
+
+    Scanner(CharSequence source, ErrorReporter reporter) {
+        this(source, reporter, true);
+    }
+
+    // Wide skipping can be turned off to compare against the scalar loop.
+    Scanner(CharSequence source, ErrorReporter reporter, boolean wide) {
         this.source = source;
+        this.window = null;
+        this.wide = wide && source instanceof Utf8Source utf8 ? utf8 : null;
+        this.reporter = reporter;
+        this.limit = Integer.MAX_VALUE;
+    }
+
+    // Scans the lexemes that start in [from, to), the last of which may
+    // run past to. line must be the line number at from.
+    Scanner(CharSequence source, ErrorReporter reporter,
+            int from, int to, int line) {
+        this.source = source;
+        this.window = null;
+        this.wide = source instanceof Utf8Source utf8 ? utf8 : null;
+        this.reporter = reporter;
+        this.start = from;
+        this.current = from;
+        this.line = line;
+        this.limit = to;
+    }
+
+    Scanner(Reader source, ErrorReporter reporter) {
+        this.source = null;
+        this.window = new CharWindow(source);
+        this.wide = null;
+        this.reporter = reporter;
+        this.limit = Integer.MAX_VALUE;
     }
 
     List<Token> scanTokens() {
-        while (!isAtEnd()) {
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        do {
+            token = next();
+            tokens.add(token);
+        } while (token.type != EOF);
+        return tokens;
+    }
+
+    @Override
+    public Token next() {
+        if (!scanNext()) {
+            if (eof == null) eof = new Token(EOF, "", null, line);
+            return eof;
+        }
+
+        Token token = new Token(pending, pendingLexeme, source,
+                start, current - start, pendingLiteral, line);
+        pending = null;
+        return token;
+    }
+
+    @Override
+    public int next(TokenBuffer buffer) {
+        if (!scanNext()) return buffer.add(EOF, "", current, 0, null, line);
+
+        int row = buffer.add(pending, pendingLexeme,
+                start, current - start, pendingLiteral, line);
+        pending = null;
+        return row;
+    }
+
+    // Adds the next token to the buffer, or returns false at the limit
+    // instead of adding an EOF.
+    boolean nextInChunk(TokenBuffer buffer) {
+        if (!scanNext()) return false;
+
+        buffer.add(pending, pendingLexeme,
+                start, current - start, pendingLiteral, line);
+        pending = null;
+        return true;
+    }
+
+    // Where the last token ended.
+    int position() {
+        return current;
+    }
+
+    @Override
+    public TokenBuffer newBuffer() {
+        return new TokenBuffer(source);
+    }
+
+    static String fixedLexeme(TokenType type) {
+        return fixedLexemes[type.ordinal()];
+    }
+
+    // Scans until there is a pending token. Returns false at the end.
+    private boolean scanNext() {
+        while (pending == null) {
+            if (isAtEnd() || current >= limit) return false;
+
             // We are at the beginning of the next lexeme.
             start = current;
+            if (window != null) window.mark(start);
             scanToken();
         }
-
-        tokens.add(new Token(EOF, "", null, line));
-        return tokens;
+        return true;
     }
 
     private void scanToken() {
@@ -92,7 +217,7 @@ class Scanner {
             case '/':
                 if (match('/')) {
                     // A comment goes until the end of the line.
-                    while (peek() != '\n' && !isAtEnd()) advance();
+                    current = skipTo(current, '\n', '\n', '\n');
                 } else if (match('*')) {
                     blockComment();
                 } else if (isAlpha(c)) {  // ???
@@ -120,7 +245,9 @@ class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character.");
+                    // One error per character, not per UTF-8 byte.
+                    current = start + charLength(start);
+                    reporter.error(line, "Unexpected character.");
                 }
                 break;
         }
@@ -129,49 +256,125 @@ class Scanner {
     private void identifier() {
         while (isAlphaNumeric(peek())) advance();
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null) type = IDENTIFIER;
-        addToken(type);
+        addToken(identifierType());
+    }
+
+    // Keywords are told apart by their first letter and then their
+    // length, so identifiers never need to be hashed or sliced here.
+    private TokenType identifierType() {
+        switch (charAt(start)) {
+            case 'a': return checkKeyword("and", AND);
+            case 'b': return checkKeyword("break", BREAK);
+            case 'c':
+                switch (current - start) {
+                    case 5: return checkKeyword("class", CLASS);
+                    case 8: return checkKeyword("continue", CONTINUE);
+                }
+                break;
+            case 'd':
+                switch (current - start) {
+                    case 2: return checkKeyword("do", DO);
+                    case 7: return checkKeyword("default", DEFAULT);
+                }
+                break;
+            case 'e': return checkKeyword("else", ELSE);
+            case 'f':
+                switch (current - start) {
+                    case 3:
+                        if (charAt(start + 1) == 'o') {
+                            return checkKeyword("for", FOR);
+                        }
+                        return checkKeyword("fun", FUN);
+                    case 5: return checkKeyword("false", FALSE);
+                }
+                break;
+            case 'i': return checkKeyword("if", IF);
+            case 'n': return checkKeyword("nil", NIL);
+            case 'o': return checkKeyword("or", OR);
+            case 'p': return checkKeyword("print", PRINT);
+            case 'r': return checkKeyword("return", RETURN);
+            case 's': return checkKeyword("super", SUPER);
+            case 't':
+                switch (current - start) {
+                    case 4:
+                        if (charAt(start + 1) == 'h') {
+                            return checkKeyword("this", THIS);
+                        }
+                        return checkKeyword("true", TRUE);
+                    case 5: return checkKeyword("trait", TRAIT);
+                }
+                break;
+            case 'v': return checkKeyword("var", VAR);
+            case 'w': return checkKeyword("while", WHILE);
+        }
+        return IDENTIFIER;
+    }
+
+    private TokenType checkKeyword(String keyword, TokenType type) {
+        if (current - start != keyword.length()) return IDENTIFIER;
+        for (int i = 1; i < keyword.length(); i++) {
+            if (charAt(start + i) != keyword.charAt(i)) return IDENTIFIER;
+        }
+        return type;
     }
 
     private void number() {
-        while (isDigit(peek())) advance();
+        // Small integers are exact in a double, so they are accumulated
+        // directly; anything else goes through parseDouble().
+        long value = charAt(start) - '0';
+        while (isDigit(peek())) value = value * 10 + (advance() - '0');
 
         // Look for a fractional part.
         if (peek() == '.' && isDigit(peekNext())) {
             do advance();  // Consume the "."
             while (isDigit(peek()));
+        } else if (current - start <= 15) {
+            addToken(NUMBER, (double) value);
+            return;
         }
 
         addToken(NUMBER,
-                Double.parseDouble(source.substring(start, current)));
+                Double.parseDouble(text(start, current)));
     }
 
     private void string() {
-        boolean inEscSeq = false;
-        while ((inEscSeq || peek() != '"') && !isAtEnd()) {
+        boolean hasEscapes = false;
+        while (true) {
+            current = skipTo(current, '"', '\\', '\n');
+            if (isAtEnd() || peek() == '"') break;
+            if (peek() == '\\') {
+                // Whatever follows a backslash is part of the string.
+                hasEscapes = true;
+                advance();
+                if (isAtEnd()) break;
+            }
             if (peek() == '\n') line++;
-            if (!inEscSeq && peek() == '\\') inEscSeq = true;
-            else if (inEscSeq) inEscSeq = false;
             advance();
         }
 
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            reporter.error(line, "Unterminated string.");
             return;
         }
 
         // The closing `"`.
         advance();
 
-        // Trim the surrounding quotes.
-        // As per the book's suggestion, unescape escape sequences here, if you want.
-        String value0 = source.substring(start + 1, current - 1);
-        StringBuilder value = new StringBuilder();
-        for (int i = 0; i < value0.length(); i++) {
-            if (value0.charAt(i) == '\\' && i+1 < value0.length()) {
-                switch (value0.charAt(i+1)) {
+        // Trim the surrounding quotes. Without escapes, that is the value.
+        if (!hasEscapes) {
+            addToken(STRING, text(start + 1, current - 1));
+            return;
+        }
+
+        // The text between escapes is appended in slices, so that a
+        // UTF-8 source is decoded correctly.
+        int end = current - 1;
+        int from = start + 1;
+        StringBuilder value = new StringBuilder(end - start);
+        for (int i = start + 1; i < end; i++) {
+            if (charAt(i) == '\\' && i+1 < end) {
+                value.append(text(from, i));
+                switch (charAt(i+1)) {
                     case 'n':
                         value.append('\n');
                         break;
@@ -188,22 +391,23 @@ class Scanner {
                         value.append('\\');
                         break;
                     default:
-                        Lox.error(line, "Unrecognized escape sequence '" + '\\' + value0.charAt(i+1) + "'.");
+                        reporter.error(line, "Unrecognized escape sequence '" + '\\' + text(i+1, i+1 + charLength(i+1)) + "'.");
                         return;
                 }
                 i++;
-            } else {
-                value.append(value0.charAt(i));
+                from = i + 1;
             }
         }
+        value.append(text(from, end));
         addToken(STRING, value.toString());
     }
 
     private void blockComment() {
         int nestingLevel = 1;
         while (nestingLevel > 0) {
-            if (current + 1 > source.length()) {
-                Lox.error(line, "Unclosed block comment.");
+            current = skipTo(current, '/', '*', '\n');
+            if (isAtEnd()) {
+                reporter.error(line, "Unclosed block comment.");
                 return;
             } else if (peek() == '/' && peekNext() == '*') nestingLevel++;
             else if (peek() == '*' && peekNext() == '/') nestingLevel--;
@@ -215,7 +419,7 @@ class Scanner {
 
     private boolean match(char expected) {
         if (isAtEnd()) return false;
-        if (source.charAt(current) != expected) return false;
+        if (charAt(current) != expected) return false;
 
         current++;
         return true;
@@ -223,12 +427,12 @@ class Scanner {
 
     private char peek() {
         if (isAtEnd()) return '\0';
-        return source.charAt(current);
+        return charAt(current);
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
-        return source.charAt(current + 1);
+        if (!has(current + 1)) return '\0';
+        return charAt(current + 1);
     }
 
     private boolean isAlpha(char c) {
@@ -246,11 +450,51 @@ class Scanner {
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return !has(current);
     }
 
     private char advance() {
-        return source.charAt(current++);
+        return charAt(current++);
+    }
+
+    // The index of the first of a, b or c at or after from, or the end of
+    // the input. Only a, b and c can change the Scanner's state in the
+    // loops that call this, so everything else is skipped in bulk.
+    private int skipTo(int from, char a, char b, char c) {
+        if (wide != null) return wide.indexOfAny(from, a, b, c);
+
+        int i = from;
+        while (has(i)) {
+            char x = charAt(i);
+            if (x == a || x == b || x == c) break;
+            i++;
+        }
+        return i;
+    }
+
+    // How many positions the character at index takes up: more than one
+    // only for a multi-byte sequence in a UTF-8 source.
+    private int charLength(int index) {
+        if (!(source instanceof Utf8Source)) return 1;
+        char c = charAt(index);
+        int length = c < 0xC0 ? 1 : c < 0xE0 ? 2 : c < 0xF0 ? 3 : 4;
+        while (length > 1 && !has(index + length - 1)) length--;
+        return length;
+    }
+
+    private boolean has(int index) {
+        if (window != null) return window.has(index);
+        return index < source.length();
+    }
+
+    private char charAt(int index) {
+        if (window != null) return window.charAt(index);
+        return source.charAt(index);
+    }
+
+    private String text(int from, int to) {
+        if (window != null) return window.text(from, to);
+        return source.subSequence(from, to).toString();
     }
 
     private void addToken(TokenType type) {
@@ -258,7 +502,11 @@ class Scanner {
     }
 
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        String lexeme = fixedLexemes[type.ordinal()];
+        // The window moves on, so its tokens can't slice lazily.
+        if (lexeme == null && window != null) lexeme = text(start, current);
+        pending = type;
+        pendingLexeme = lexeme;
+        pendingLiteral = literal;
     }
 }
@@ -0,0 +1,213 @@
+package com.craftinginterpreters.lox;
+
+import com.craftinginterpreters.utils.Tuple;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Keeps the compiled form of each source file in a per-user cache
+// directory: -Dlox.cache.dir, else $XDG_CACHE_HOME/jlox, else
+// ~/.cache/jlox. There is one entry per source path, so source
+// directories are never written to and an edited file replaces its entry
+// rather than adding one. An entry is only used if it matches the
+// SHA-256 of the source bytes, VERSION, and a fingerprint of the
+// interpreter build, and it is read back through a memory-mapped file.
+// Only function bodies, decoded on their first call, are copied out of
+// it, so that rewriting the entry can't reach them.
+// Resolver warnings are stored too and replayed on a hit. Set
+// -Dlox.cache=false to turn it off.
+class ScriptCache {
+    // Bump whenever the AstWriter format changes.
+    static final int VERSION = 2;
+
+    private static final int MAGIC = 0x4C4F5843;  // "LOXC"
+    private static final int HASH_SIZE = 32;
+    private static final int HEADER_SIZE = 4 + 4 + HASH_SIZE + HASH_SIZE;
+
+    static final boolean enabled =
+            !"false".equals(System.getProperty("lox.cache"));
+
+    // The classes whose code decides what a compiled script looks like.
+    // Their class files are digested into the fingerprint, so a rebuilt
+    // interpreter ignores entries an older build wrote.
+    private static final Class<?>[] compiler = {
+            Scanner.class, Parser.class, Resolver.class, DeferredBody.class,
+            AstWriter.class, AstReader.class, Expr.class, Stmt.class,
+            Token.class, TokenType.class
+    };
+
+    // Computed on first use, as only cache users need them.
+    private static final class Build {
+        static final Path directory = directory();
+        static final byte[] fingerprint = fingerprint();
+    }
+
+    static LoxScript load(Path path, ErrorReporter reporter) throws IOException {
+        Utf8Source source = Utf8Source.map(path);
+        return load(path, source, enabled ? hash(source) : null, reporter);
+    }
+
+    static LoxScript load(Path path, Utf8Source source, byte[] hash,
+                          ErrorReporter reporter) {
+        if (!enabled) return LoxScript.compile(source, reporter);
+
+        Path cache = cachePath(path);
+
+        LoxScript script = read(cache, hash, reporter);
+        if (script != null) return script;
+
+        int warningCount = reporter.warnings.size();
+        // Every body is compiled now, as the cache needs them all; later
+        // runs decode them from it lazily instead.
+        script = LoxScript.compile(source, reporter, false);
+        // Writing a flat script out would inflate all of it.
+        if (script != null && script.flat == null) {
+            write(cache, hash, script, reporter.warnings.subList(
+                    warningCount, reporter.warnings.size()));
+        }
+        return script;
+    }
+
+    static Path cachePath(Path path) {
+        byte[] key = path.toAbsolutePath().normalize().toString()
+                .getBytes(StandardCharsets.UTF_8);
+        return Build.directory.resolve(
+                HexFormat.of().formatHex(sha256(key), 0, 16) + ".loxc");
+    }
+
+    private static Path directory() {
+        String directory = System.getProperty("lox.cache.dir");
+        if (directory != null) return Paths.get(directory);
+        String xdg = System.getenv("XDG_CACHE_HOME");
+        Path base = xdg != null && !xdg.isEmpty() ?
+                Paths.get(xdg) : Paths.get(System.getProperty("user.home"), ".cache");
+        return base.resolve("jlox");
+    }
+
+    private static byte[] fingerprint() {
+        MessageDigest digest = sha256();
+        for (Class<?> type : compiler) {
+            // Without class files to read, VERSION is all there is.
+            try (InputStream in = type.getResourceAsStream(
+                    type.getSimpleName() + ".class")) {
+                if (in != null) digest.update(in.readAllBytes());
+            } catch (IOException e) {
+                continue;
+            }
+        }
+        return digest.digest();
+    }
+
+    private static LoxScript read(Path cache, byte[] hash,
+                                  ErrorReporter reporter) {
+        if (!Files.isRegularFile(cache)) return null;
+
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) return null;
+            MappedByteBuffer buffer = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return null;
+            byte[] cachedBuild = new byte[HASH_SIZE];
+            buffer.get(cachedBuild);
+            if (!Arrays.equals(Build.fingerprint, cachedBuild)) return null;
+            byte[] cachedHash = new byte[HASH_SIZE];
+            buffer.get(cachedHash);
+            if (!Arrays.equals(hash, cachedHash)) return null;
+
+            int warningCount = buffer.getInt();
+            List<Tuple<Integer, String>> warnings = new ArrayList<>();
+            for (int i = 0; i < warningCount; i++) {
+                int line = buffer.getInt();
+                byte[] message = new byte[buffer.getInt()];
+                buffer.get(message);
+                warnings.add(new Tuple<>(line, new String(message, StandardCharsets.UTF_8)));
+            }
+
+            // Lazily decoded function bodies add their entries later on,
+            // possibly from several contexts at once.
+            ConcurrentHashMap<Expr, Tuple<Integer, Integer>> locals =
+                    new ConcurrentHashMap<>();
+            AstReader reader = new AstReader(buffer, locals);
+            LoxScript script = new LoxScript(reader.read(), locals);
+
+            for (Tuple<Integer, String> warning : warnings) {
+                reporter.warning(warning.fst, warning.snd);
+            }
+            return script;
+        } catch (IOException | RuntimeException e) {
+            // A stale or damaged cache is simply recompiled.
+            return null;
+        }
+    }
+
+    private static void write(Path cache, byte[] hash, LoxScript script,
+                              List<Tuple<Integer, String>> warnings) {
+        byte[] body = new AstWriter(script.locals).write(script.statements);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+
+        try {
+            Files.createDirectories(cache.getParent());
+            Path temp = Files.createTempFile(
+                    cache.getParent(), cache.getFileName().toString(), ".tmp");
+            try {
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+                header.write(Build.fingerprint);
+                header.write(hash);
+                header.writeInt(warnings.size());
+                for (Tuple<Integer, String> warning : warnings) {
+                    byte[] message = warning.snd.getBytes(StandardCharsets.UTF_8);
+                    header.writeInt(warning.fst);
+                    header.writeInt(message.length);
+                    header.write(message);
+                }
+                Files.write(temp, bytes.toByteArray());
+                Files.write(temp, body, StandardOpenOption.APPEND);
+                Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            // The cache is only an optimization; an unwritable one is fine.
+        }
+    }
+
+    static byte[] hash(Utf8Source source) {
+        MessageDigest digest = sha256();
+        digest.update(source.bytes());
+        return digest.digest();
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        return sha256().digest(bytes);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
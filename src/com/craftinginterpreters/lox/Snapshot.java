@@ -0,0 +1,154 @@
+package com.craftinginterpreters.lox;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// Saves the heap a script leaves behind (globals, classes, traits,
+// closures and their environments) so that a later process can restore
+// it instead of re-running the script's top-level code. Natives, the
+// globals functions close over and imported modules are written as
+// references and rebound on restore; fibers and channels can't be
+// snapshotted.
+class Snapshot {
+    // Bump whenever a snapshotted class changes shape, or what write()
+    // puts in the stream does.
+    static final int VERSION = 3;
+
+    private static final int MAGIC = 0x4C4F5853;  // "LOXS"
+    private static final String WRONG_VERSION =
+            "Not a snapshot from this interpreter version.";
+
+    // Scripts read from a .loxc resolve into a ConcurrentHashMap, which
+    // functions carry along. Its serialized form includes Segments, which
+    // are ReentrantLocks.
+    private static final ObjectInputFilter filter = ObjectInputFilter.Config.createFilter(
+            "com.craftinginterpreters.**;java.lang.*;java.util.*;" +
+            "java.util.concurrent.ConcurrentHashMap*;" +
+            "java.util.concurrent.locks.ReentrantLock*;" +
+            "java.util.concurrent.locks.AbstractQueuedSynchronizer;" +
+            "java.util.concurrent.locks.AbstractOwnableSynchronizer;!*");
+
+    private static final Map<Object, String> nativeNames = new IdentityHashMap<>();
+
+    static {
+        for (Map.Entry<String, LoxCallable> entry : Interpreter.natives.entrySet()) {
+            nativeNames.put(entry.getValue(), entry.getKey());
+        }
+    }
+
+    private record NativeRef(String name) implements Serializable {}
+    private record ModuleRef(String path) implements Serializable {}
+    private record GlobalsRef() implements Serializable {}
+    private record NilRef() implements Serializable {}
+
+    private static class SnapshotOutputStream extends ObjectOutputStream {
+        private final Map<String, Object> globals;
+
+        SnapshotOutputStream(OutputStream out, Interpreter interpreter)
+                throws IOException {
+            super(out);
+            this.globals = interpreter.globals();
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) {
+            String name = nativeNames.get(obj);
+            if (name != null) return new NativeRef(name);
+            if (obj == globals) return new GlobalsRef();
+            if (obj == Interpreter.NIL) return new NilRef();
+            if (obj instanceof LoxModule module) {
+                return new ModuleRef(module.path.toString());
+            }
+            return obj;
+        }
+    }
+
+    private static class SnapshotInputStream extends ObjectInputStream {
+        private final Interpreter interpreter;
+
+        SnapshotInputStream(InputStream in, Interpreter interpreter)
+                throws IOException {
+            super(in);
+            this.interpreter = interpreter;
+            enableResolveObject(true);
+            setObjectInputFilter(filter);
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) throws IOException {
+            if (obj instanceof NativeRef ref) {
+                LoxCallable function = Interpreter.natives.get(ref.name());
+                if (function == null) {
+                    throw new InvalidObjectException(
+                            "Unknown native '" + ref.name() + "'.");
+                }
+                return function;
+            }
+            if (obj instanceof GlobalsRef) return interpreter.globals();
+            if (obj instanceof NilRef) return Interpreter.NIL;
+            if (obj instanceof ModuleRef ref) {
+                return interpreter.importModule(ref.path());
+            }
+            return obj;
+        }
+    }
+
+    static void write(Interpreter interpreter, OutputStream out) throws IOException {
+        // Bodies of cached scripts are decoded as they are
+        // written, adding entries to the resolution table their script
+        // shares. A function written early would carry that table without
+        // the entries of bodies written after it, so a first pass that
+        // is thrown away decodes every reachable body beforehand.
+        writeObjects(interpreter, OutputStream.nullOutputStream());
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        writeObjects(interpreter, data);
+    }
+
+    private static void writeObjects(Interpreter interpreter, OutputStream out)
+            throws IOException {
+        ObjectOutputStream objects = new SnapshotOutputStream(out, interpreter);
+        objects.writeObject(interpreter.globalValues());
+        objects.writeObject(interpreter.files.stamps());
+        objects.flush();
+    }
+
+    @SuppressWarnings("unchecked")
+    static void read(Interpreter interpreter, InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+            throw new IOException(WRONG_VERSION);
+        }
+
+        // A stream whose classes or contents don't match this build is
+        // rejected as a whole, before any global is defined.
+        ObjectInputStream objects = new SnapshotInputStream(data, interpreter);
+        Object globals;
+        Object stamps;
+        try {
+            globals = objects.readObject();
+            stamps = objects.readObject();
+        } catch (ClassNotFoundException | InvalidClassException e) {
+            throw new IOException(WRONG_VERSION, e);
+        }
+        if (!(globals instanceof Map) || !(stamps instanceof Map)) {
+            throw new IOException(WRONG_VERSION);
+        }
+        interpreter.defineGlobals((Map<String, Object>) globals);
+        interpreter.files.restore((Map<String, LoadedFiles.Stamp>) stamps);
+    }
+}
@@ -1,9 +1,13 @@
 package com.craftinginterpreters.lox;
 
+import java.io.Serializable;
 import java.util.List;
 import java.util.Map;
 
-abstract class Stmt {
+@SuppressWarnings("serial")
+abstract class Stmt implements Serializable {
+	private static final long serialVersionUID = 1L;
+
 	interface Visitor<R> {
 		R visitBlockStmt(Block stmt);
 		R visitClassStmt(Class stmt);
@@ -18,6 +22,8 @@ abstract class Stmt {
 		R visitWhileStmt(While stmt);
 	}
 	static class Block extends Stmt {
+		private static final long serialVersionUID = 1L;
+
 		Block(List<Stmt> statements) {
 			this.statements = statements;
 		}
@@ -30,6 +36,8 @@ abstract class Stmt {
 		}
 	}
 	static class Class extends Stmt {
+		private static final long serialVersionUID = 1L;
+
 		Class(Token name, Expr.Variable superclass, List<Expr.Variable> traits, Map<Stmt.Function,Boolean> methods, List<Stmt.Function> staticMethods) {
 			this.name = name;
 			this.superclass = superclass;
@@ -50,6 +58,8 @@ abstract class Stmt {
 		}
 	}
 	static class Expression extends Stmt {
+		private static final long serialVersionUID = 1L;
+
 		Expression(Expr expression) {
 			this.expression = expression;
 		}
@@ -62,6 +72,8 @@ abstract class Stmt {
 		}
 	}
 	static class Flow extends Stmt {
+		private static final long serialVersionUID = 1L;
+
 		Flow(Token type) {
 			this.type = type;
 		}
@@ -74,6 +86,8 @@ abstract class Stmt {
 		}
 	}
 	static class Function extends Stmt {
+		private static final long serialVersionUID = 1L;
+
 		Function(Token name, List<Token> params, List<Stmt> body) {
 			this.name = name;
 			this.params = params;
@@ -90,6 +104,8 @@ abstract class Stmt {
 		}
 	}
 	static class If extends Stmt {
+		private static final long serialVersionUID = 1L;
+
 		If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
 			this.condition = condition;
 			this.thenBranch = thenBranch;
@@ -106,6 +122,8 @@ abstract class Stmt {
 		}
 	}
 	static class Print extends Stmt {
+		private static final long serialVersionUID = 1L;
+
 		Print(Expr expression) {
 			this.expression = expression;
 		}
@@ -118,6 +136,8 @@ abstract class Stmt {
 		}
 	}
 	static class Return extends Stmt {
+		private static final long serialVersionUID = 1L;
+
 		Return(Token keyword, Expr value) {
 			this.keyword = keyword;
 			this.value = value;
@@ -132,6 +152,8 @@ abstract class Stmt {
 		}
 	}
 	static class Trait extends Stmt {
+		private static final long serialVersionUID = 1L;
+
 		Trait(Token name, Map<Token,Integer> methods, List<Stmt.Function> defaultImpls) {
 			this.name = name;
 			this.methods = methods;
@@ -148,6 +170,8 @@ abstract class Stmt {
 		}
 	}
 	static class Var extends Stmt {
+		private static final long serialVersionUID = 1L;
+
 		Var(Token name, Expr initializer) {
 			this.name = name;
 			this.initializer = initializer;
@@ -162,6 +186,8 @@ abstract class Stmt {
 		}
 	}
 	static class While extends Stmt {
+		private static final long serialVersionUID = 1L;
+
 		While(Expr condition, Stmt body, Stmt increment) {
 			this.condition = condition;
 			this.body = body;
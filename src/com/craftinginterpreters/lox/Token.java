@@ -1,19 +1,81 @@
 package com.craftinginterpreters.lox;
 
-class Token {
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+class Token implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Lets LoxDocument renumber the lines of every token in a reused
+    // declaration at once, after an edit above it adds or removes lines.
+    static final class LineShift implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        int lines = 0;
+    }
+
     final TokenType type;
-    final String lexeme;
+    // A Double, a String or null.
+    @SuppressWarnings("serial")
     final Object literal;
-    final int line;
+    private final int line;
+    private final LineShift shift;
+    // Where the lexeme is in the source, or -1 for tokens that were not
+    // scanned (synthetic ones, or ones read back from a .loxc file).
+    final int start;
+    final int length;
+    // Sliced out of the source on first use. Racing threads at worst
+    // both slice it; Strings are safe to publish that way. Tokens in
+    // the AST are detached() from the source, so they don't keep it.
+    private String lexeme;
+    private final transient CharSequence source;
 
     Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, null, -1, lexeme.length(), literal, line);
+    }
+
+    Token(TokenType type, String lexeme, CharSequence source,
+          int start, int length, Object literal, int line) {
+        this(type, lexeme, source, start, length, literal, line, null);
+    }
+
+    Token(TokenType type, String lexeme, CharSequence source, int start,
+          int length, Object literal, int line, LineShift shift) {
         this.type = type;
+        this.shift = shift;
         this.lexeme = lexeme;
+        this.source = source;
+        this.start = start;
+        this.length = length;
         this.literal = literal;
         this.line = line;
     }
 
+    int line() {
+        return shift == null ? line : line + shift.lines;
+    }
+
+    String lexeme() {
+        String lexeme = this.lexeme;
+        if (lexeme == null) {
+            lexeme = source.subSequence(start, start + length).toString();
+            this.lexeme = lexeme;
+        }
+        return lexeme;
+    }
+
+    Token detached() {
+        if (source == null) return this;
+        return new Token(type, lexeme(), null, start, length, literal, line, shift);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        lexeme();
+        out.defaultWriteObject();
+    }
+
     public String toString() {
-        return type + " " + lexeme + " " + literal;
+        return type + " " + lexeme() + " " + literal;
     }
 }
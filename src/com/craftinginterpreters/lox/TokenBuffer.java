@@ -0,0 +1,166 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Tokens stored column by column: a row is a type ordinal, the lexeme's
+// offset and length in the source, a line and an index into a table of
+// interned literals. A Token object is only made, by token(), for the
+// rows the parser keeps in the AST.
+class TokenBuffer {
+    private static final TokenType[] types = TokenType.values();
+
+    private final CharSequence source;
+    private int[] type = new int[64];
+    private int[] start = new int[64];
+    private int[] length = new int[64];
+    private int[] line = new int[64];
+    private int[] literal = new int[64];
+    private final List<Object> literals = new ArrayList<>();
+    private final Map<Object, Integer> literalIndex = new HashMap<>();
+    private final Map<String, String> names = new HashMap<>();
+    // Only allocated for rows whose lexeme can't be sliced from the
+    // source later, or that arrived as Token objects already.
+    private String[] lexemes = null;
+    private Token[] tokens = null;
+    private int size = 0;
+    // Handed to the Tokens that token() makes.
+    Token.LineShift shift = null;
+
+    TokenBuffer(CharSequence source) {
+        this.source = source;
+    }
+
+    // Null when the tokens came from a Reader.
+    CharSequence source() {
+        return source;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int add(TokenType type, String lexeme, int start, int length,
+            Object literal, int line) {
+        int row = size++;
+        if (row == this.type.length) grow();
+        this.type[row] = type.ordinal();
+        this.start[row] = start;
+        this.length[row] = length;
+        this.line[row] = line;
+        this.literal[row] = literal == null ? -1 : intern(literal);
+        if (lexeme != null && Scanner.fixedLexeme(type) == null) {
+            if (lexemes == null) lexemes = new String[this.type.length];
+            lexemes[row] = lexeme;
+        }
+        return row;
+    }
+
+    int add(Token token) {
+        int row = add(token.type, null, token.start, token.length,
+                token.literal, token.line());
+        if (tokens == null) tokens = new Token[type.length];
+        tokens[row] = token;
+        return row;
+    }
+
+    // Copies a row of another buffer over the same source.
+    int add(TokenBuffer other, int row) {
+        String lexeme = other.lexemes == null ? null : other.lexemes[row];
+        int copy = add(other.type(row), lexeme, other.start[row],
+                other.length[row], other.literal(row), other.line[row]);
+        if (other.tokens != null && other.tokens[row] != null) {
+            if (tokens == null) tokens = new Token[type.length];
+            tokens[copy] = other.tokens[row];
+        }
+        return copy;
+    }
+
+    TokenType type(int row) {
+        return types[type[row]];
+    }
+
+    int start(int row) {
+        return start[row];
+    }
+
+    int line(int row) {
+        return line[row];
+    }
+
+    Object literal(int row) {
+        return literal[row] < 0 ? null : literals.get(literal[row]);
+    }
+
+    // The token is going into the AST, which may outlive the source by
+    // far, so its lexeme is sliced now rather than on first use. Names
+    // repeat a lot, so the slices are shared.
+    Token token(int row) {
+        if (tokens != null && tokens[row] != null) {
+            tokens[row] = tokens[row].detached();
+            return tokens[row];
+        }
+
+        TokenType type = type(row);
+        String lexeme = Scanner.fixedLexeme(type);
+        if (lexeme == null && lexemes != null) lexeme = lexemes[row];
+        if (lexeme == null) {
+            lexeme = source.subSequence(start[row], start[row] + length[row]).toString();
+            lexeme = names.computeIfAbsent(lexeme, name -> name);
+        }
+        return new Token(type, lexeme, null, start[row], length[row],
+                literal(row), line[row], shift);
+    }
+
+    // Drops every row before the given one, so a buffer that is read as
+    // it is filled stays small.
+    void discardBefore(int row) {
+        int kept = size - row;
+        System.arraycopy(type, row, type, 0, kept);
+        System.arraycopy(start, row, start, 0, kept);
+        System.arraycopy(length, row, length, 0, kept);
+        System.arraycopy(line, row, line, 0, kept);
+        if (lexemes != null) {
+            System.arraycopy(lexemes, row, lexemes, 0, kept);
+            Arrays.fill(lexemes, kept, size, null);
+        }
+        if (tokens != null) {
+            System.arraycopy(tokens, row, tokens, 0, kept);
+            Arrays.fill(tokens, kept, size, null);
+        }
+
+        List<Object> values = new ArrayList<>(kept);
+        for (int i = row; i < size; i++) values.add(literal(i));
+        literals.clear();
+        literalIndex.clear();
+        for (int i = 0; i < kept; i++) {
+            Object value = values.get(i);
+            literal[i] = value == null ? -1 : intern(value);
+        }
+        size = kept;
+    }
+
+    private int intern(Object literal) {
+        Integer index = literalIndex.get(literal);
+        if (index == null) {
+            index = literals.size();
+            literals.add(literal);
+            literalIndex.put(literal, index);
+        }
+        return index;
+    }
+
+    private void grow() {
+        int capacity = type.length * 2;
+        type = Arrays.copyOf(type, capacity);
+        start = Arrays.copyOf(start, capacity);
+        length = Arrays.copyOf(length, capacity);
+        line = Arrays.copyOf(line, capacity);
+        literal = Arrays.copyOf(literal, capacity);
+        if (lexemes != null) lexemes = Arrays.copyOf(lexemes, capacity);
+        if (tokens != null) tokens = Arrays.copyOf(tokens, capacity);
+    }
+}
@@ -0,0 +1,52 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Iterator;
+import java.util.List;
+
+// Where the Parser pulls its tokens from. After the EOF token, next()
+// keeps returning EOF.
+interface TokenStream {
+    Token next();
+
+    // Appends the next token to the buffer and returns its row. Scanner
+    // does this without creating a Token.
+    default int next(TokenBuffer buffer) {
+        return buffer.add(next());
+    }
+
+    default TokenBuffer newBuffer() {
+        return new TokenBuffer(null);
+    }
+
+    static TokenStream of(List<Token> tokens) {
+        Iterator<Token> iterator = tokens.iterator();
+        Token[] last = new Token[1];
+        return () -> {
+            if (iterator.hasNext()) last[0] = iterator.next();
+            return last[0];
+        };
+    }
+
+    // For the REPL: ends the input with a semicolon, so that a bare
+    // expression parses as an expression statement.
+    static TokenStream withSemicolonAtEnd(TokenStream tokens) {
+        return new TokenStream() {
+            private Token eof = null;
+            private boolean inserted = false;
+
+            @Override
+            public Token next() {
+                if (eof == null) {
+                    Token token = tokens.next();
+                    if (token.type != TokenType.EOF) return token;
+                    eof = token;
+                }
+                if (!inserted) {
+                    inserted = true;
+                    return new Token(TokenType.SEMICOLON, ";", null, 1);
+                }
+                return eof;
+            }
+        };
+    }
+}
@@ -1,8 +1,12 @@
 package com.craftinginterpreters.lox;
 
+import java.io.Serializable;
 import java.util.Map;
 
-public class Trait {
+@SuppressWarnings("serial")
+public class Trait implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     Map<String, LoxFunction> defaultImpls;
 
     Trait(Map<String, LoxFunction> defaultImpls) {
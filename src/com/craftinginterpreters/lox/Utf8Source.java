@@ -0,0 +1,102 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// UTF-8 source bytes seen as a CharSequence of bytes, so the Scanner can
+// run over a memory-mapped file without decoding it first. Everything Lox
+// gives meaning to is ASCII, so bytes can be compared as chars; only the
+// slices the Scanner asks for (identifiers and string literals) are
+// decoded, by subSequence().
+class Utf8Source implements CharSequence {
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    private final ByteBuffer bytes;
+    // The same bytes, read eight at a time by indexOfAny().
+    private final ByteBuffer words;
+
+    Utf8Source(ByteBuffer bytes) {
+        this.bytes = bytes;
+        this.words = bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    static Utf8Source map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new Utf8Source(channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    // The bytes from start to end, copied onto the heap. What is read
+    // from a mapping long after loading (a deferred body) is copied out
+    // first: by then the file may have been edited, or truncated, which
+    // faults the mapping.
+    Utf8Source copy(int start, int end) {
+        byte[] slice = new byte[end - start];
+        bytes.get(start, slice);
+        return new Utf8Source(ByteBuffer.wrap(slice));
+    }
+
+    ByteBuffer bytes() {
+        return bytes.duplicate();
+    }
+
+    // The index of the first of the given ASCII characters at or after
+    // from, or length() if there is none. Eight bytes are tested at once:
+    // XOR with a needle turns a match into a zero byte, and the borrow
+    // trick flags zero bytes. Only the lowest flag is exact, which is the
+    // one that is used.
+    int indexOfAny(int from, char a, char b, char c) {
+        long needleA = ONES * a;
+        long needleB = ONES * b;
+        long needleC = ONES * c;
+        int limit = bytes.limit();
+        int i = from;
+        for (; i + 8 <= limit; i += 8) {
+            long word = words.getLong(i);
+            long found = zeroBytes(word ^ needleA) |
+                    zeroBytes(word ^ needleB) |
+                    zeroBytes(word ^ needleC);
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < limit; i++) {
+            char x = charAt(i);
+            if (x == a || x == b || x == c) return i;
+        }
+        return limit;
+    }
+
+    private static long zeroBytes(long word) {
+        return (word - ONES) & ~word & HIGHS;
+    }
+
+    @Override
+    public int length() {
+        return bytes.limit();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (bytes.get(index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        byte[] slice = new byte[end - start];
+        bytes.get(start, slice);
+        return new String(slice, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length()).toString();
+    }
+}
@@ -58,11 +58,17 @@ public class GenerateAst {
 
         writer.println("package com.craftinginterpreters.lox;");
         writer.println();
+        writer.println("import java.io.Serializable;");
         writer.println("import java.util.List;");
         writer.println("import java.util.Map");
         writer.println("import com.craftinginterpreters.utils.*;");
         writer.println();
-        writer.println("abstract class " + baseName + " {");
+        // Node lists and maps are always serializable ones, which javac
+        // can't tell from their interface types.
+        writer.println("@SuppressWarnings(\"serial\")");
+        writer.println("abstract class " + baseName + " implements Serializable {");
+        writer.println("\tprivate static final long serialVersionUID = 1L;");
+        writer.println();
 
         defineVisitor(writer, baseName, types);
 
@@ -99,6 +105,8 @@ public class GenerateAst {
             String className, String fieldList) {
         writer.println("\tstatic class " + className + " extends " +
                 baseName + " {");
+        writer.println("\t\tprivate static final long serialVersionUID = 1L;");
+        writer.println();
 
         // Constructor.
         writer.println("\t\t" + className + "(" + fieldList + ") {");
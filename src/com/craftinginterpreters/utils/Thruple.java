@@ -1,6 +1,12 @@
 package com.craftinginterpreters.utils;
 
-public class Thruple<A, B, C> {
+import java.io.Serializable;
+
+// Serializable when what it holds is.
+@SuppressWarnings("serial")
+public class Thruple<A, B, C> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     public A fst;
     public B snd;
     public C trd;
@@ -1,6 +1,12 @@
 package com.craftinginterpreters.utils;
 
-public class Tuple<A, B> {
+import java.io.Serializable;
+
+// Serializable when what it holds is.
+@SuppressWarnings("serial")
+public class Tuple<A, B> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     public A fst;
     public B snd;
 